@@ -1,9 +1,12 @@
 package info.n00bs.adblock_2b2t.client;
 
+import info.n00bs.adblock_2b2t.client.chat.ChatPurger;
 import info.n00bs.adblock_2b2t.client.command.FilterCommands;
 import info.n00bs.adblock_2b2t.client.config.FilterConfig;
 import info.n00bs.adblock_2b2t.client.filter.MessageFilter;
 import net.fabricmc.api.ClientModInitializer;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientLifecycleEvents;
+import net.fabricmc.fabric.api.client.event.lifecycle.v1.ClientTickEvents;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.text.Text;
 import net.minecraft.util.Formatting;
@@ -24,6 +27,15 @@ public class Adblock_2b2tClient implements ClientModInitializer {
         // Initialize message filter
         MessageFilter.getInstance().initialize();
 
+        // Remove already displayed messages that match newly loaded rules, a slice per tick
+        ClientTickEvents.END_CLIENT_TICK.register(ChatPurger.getInstance()::tick);
+
+        // Persist what the spam classifier learned this session
+        ClientLifecycleEvents.CLIENT_STOPPING.register(client -> MessageFilter.getInstance().saveClassifier());
+
+        // Persist the spam scores of senders
+        ClientLifecycleEvents.CLIENT_STOPPING.register(client -> MessageFilter.getInstance().saveReputation());
+
         // Log initialization
         System.out.println("2b2t AdBlock mod initialized");
 
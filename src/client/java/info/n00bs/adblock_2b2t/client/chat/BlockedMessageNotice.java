@@ -0,0 +1,49 @@
+package info.n00bs.adblock_2b2t.client.chat;
+
+import info.n00bs.adblock_2b2t.client.filter.FilterRule;
+import info.n00bs.adblock_2b2t.client.filter.MessageKind;
+import net.minecraft.text.HoverEvent;
+import net.minecraft.text.Style;
+import net.minecraft.text.Text;
+import net.minecraft.util.Formatting;
+
+/**
+ * Builds the debug mode notice shown in place of a blocked message.
+ */
+public final class BlockedMessageNotice {
+
+    private BlockedMessageNotice() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Creates the notice, with the rule and the original message on hover.
+     * @param rule The rule that matched the message, may be null
+     * @param kind The kind of the message
+     * @param messageString The plain string of the blocked message
+     * @return The notice text
+     */
+    public static Text create(FilterRule rule, MessageKind kind, String messageString) {
+        String filterType = rule != null ? rule.getCategory() : null;
+        String filterName = filterType == null ? "Unknown Filter" :
+            filterType.equals("CUSTOM") ? "Custom Filter" :
+            filterType.equals("REMOTE") ? "Remote Filter" :
+            filterType.equals("SENDER") ? "Sender Reputation" :
+            "Spam Classifier";
+
+        // Create a hover event with the original message
+        HoverEvent hoverEvent = new HoverEvent(
+            HoverEvent.Action.SHOW_TEXT,
+            Text.literal("Filter: " + filterName + "\n").formatted(Formatting.GOLD)
+                .append(Text.literal("expression: " + rule + "\n").formatted(Formatting.GOLD))
+                .append(Text.literal("Message kind: " + kind.getKeyword() + "\n").formatted(Formatting.GOLD))
+                .append(Text.literal("Blocked message: ").formatted(Formatting.RED))
+                .append(Text.literal(messageString).formatted(Formatting.WHITE))
+        );
+
+        // Create the debug message with hover effect
+        return Text.literal("[AdBlock] ").formatted(Formatting.DARK_RED)
+            .append(Text.literal("Message blocked").formatted(Formatting.RED))
+            .setStyle(Style.EMPTY.withHoverEvent(hoverEvent));
+    }
+}
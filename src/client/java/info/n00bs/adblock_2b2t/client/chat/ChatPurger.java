@@ -0,0 +1,119 @@
+package info.n00bs.adblock_2b2t.client.chat;
+
+import info.n00bs.adblock_2b2t.client.config.FilterConfig;
+import info.n00bs.adblock_2b2t.client.filter.MessageFilter;
+import info.n00bs.adblock_2b2t.client.filter.MessageKind;
+import info.n00bs.adblock_2b2t.mixin.client.ChatHudAccessor;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.gui.hud.ChatHud;
+import net.minecraft.client.gui.hud.ChatHudLine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Removes already displayed chat lines that match newly loaded rules.
+ * <p>
+ * The chat history is re-evaluated a few lines per client tick within a fixed time budget,
+ * so a large rule list never causes a frame spike. Matching lines are removed in one go
+ * once the whole history has been checked.
+ */
+public class ChatPurger {
+    private static final ChatPurger INSTANCE = new ChatPurger();
+    private static final long TICK_BUDGET_NANOS = 1_000_000L; // 1 ms of filtering per tick
+
+    private volatile boolean purgeRequested;
+    private int seenRuleSetVersion;
+
+    // Purge in progress, only touched on the client thread
+    private List<ChatHudLine> pending;
+    private int position;
+    private final Set<ChatHudLine> matched = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private ChatPurger() {
+        // Private constructor for singleton
+    }
+
+    /**
+     * Gets the singleton instance of the ChatPurger.
+     * @return The ChatPurger instance
+     */
+    public static ChatPurger getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Requests a purge of the chat history, starting on the next client tick.
+     * Safe to call from any thread.
+     */
+    public void requestPurge() {
+        purgeRequested = true;
+    }
+
+    /**
+     * Advances the purge by one time slice. Called at the end of every client tick.
+     * @param client The Minecraft client
+     */
+    public void tick(MinecraftClient client) {
+        MessageFilter filter = MessageFilter.getInstance();
+        FilterConfig config = FilterConfig.getInstance();
+
+        // Purge automatically whenever a refresh swapped in new rules
+        int version = filter.getRuleSetVersion();
+        if (version != seenRuleSetVersion) {
+            seenRuleSetVersion = version;
+            if (config.isPurgeOnRefresh()) {
+                purgeRequested = true;
+            }
+        }
+
+        if (client.inGameHud == null) {
+            return;
+        }
+        ChatHud chatHud = client.inGameHud.getChatHud();
+
+        // A new request restarts the purge against the latest rules
+        if (purgeRequested) {
+            purgeRequested = false;
+            pending = new ArrayList<>(((ChatHudAccessor) chatHud).getMessages());
+            position = 0;
+            matched.clear();
+        }
+        if (pending == null) {
+            return;
+        }
+        if (!config.isEnabled()) {
+            finish();
+            return;
+        }
+
+        long start = System.nanoTime();
+        while (position < pending.size() && System.nanoTime() - start < TICK_BUDGET_NANOS) {
+            ChatHudLine line = pending.get(position++);
+            String messageString = line.content().getString();
+            MessageKind kind = MessageKinds.classify(line.content(), messageString, line.signature(), line.indicator());
+            if (filter.getMatchingRule(messageString, kind, MessageLinks.collect(line.content())) != null) {
+                matched.add(line);
+            }
+        }
+
+        if (position >= pending.size()) {
+            if (!matched.isEmpty()) {
+                // Lines may have been added or scrolled out meanwhile, so remove by identity
+                ((ChatHudAccessor) chatHud).getMessages().removeIf(matched::contains);
+                chatHud.reset();
+                System.out.println("Purged " + matched.size() + " blocked messages from chat");
+            }
+            finish();
+        }
+    }
+
+    private void finish() {
+        pending = null;
+        position = 0;
+        matched.clear();
+    }
+}
@@ -0,0 +1,74 @@
+package info.n00bs.adblock_2b2t.client.chat;
+
+import info.n00bs.adblock_2b2t.client.filter.MessageKind;
+import info.n00bs.adblock_2b2t.client.filter.Senders;
+import net.minecraft.client.gui.hud.MessageIndicator;
+import net.minecraft.network.message.MessageSignatureData;
+import net.minecraft.text.Text;
+import net.minecraft.text.TranslatableTextContent;
+
+/**
+ * Determines the kind of a chat line from what {@code ChatHud.addMessage} receives.
+ */
+public final class MessageKinds {
+    private static final String WHISPER_INCOMING_KEY = "commands.message.display.incoming";
+    private static final String WHISPER_OUTGOING_KEY = "commands.message.display.outgoing";
+
+    // Server-formatted whispers arrive as plain system messages, e.g. "Name whispers: hi" (see Senders)
+    private static final String WHISPER_OUTGOING_PREFIX = "to ";
+
+    private MessageKinds() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Classifies a chat line.
+     * @param message The message text
+     * @param messageString The plain string of the message
+     * @param signature The message signature data, null for unsigned messages
+     * @param indicator The message indicator, null for secure player chat
+     * @return The kind of the message
+     */
+    public static MessageKind classify(Text message, String messageString, MessageSignatureData signature, MessageIndicator indicator) {
+        if (isWhisperKey(message)) {
+            return MessageKind.WHISPER;
+        }
+
+        // Signed chat, or player chat flagged as not secure / modified. Its text is written by
+        // the sender, so it is never taken for a whisper however it reads.
+        if (signature != null) {
+            return MessageKind.CHAT;
+        }
+        if (indicator != null && indicator != MessageIndicator.system() && indicator != MessageIndicator.singlePlayer()) {
+            return MessageKind.CHAT;
+        }
+
+        // Server-formatted lines, read the same way as sender names are found
+        long sender = Senders.findSender(messageString);
+        if (sender >= 0) {
+            return (sender >>> 32) == 0 ? MessageKind.WHISPER : MessageKind.CHAT;
+        }
+        if (isOutgoingWhisper(messageString)) {
+            return MessageKind.WHISPER;
+        }
+        return MessageKind.SYSTEM;
+    }
+
+    private static boolean isWhisperKey(Text message) {
+        if (message.getContent() instanceof TranslatableTextContent translatable) {
+            String key = translatable.getKey();
+            return WHISPER_INCOMING_KEY.equals(key) || WHISPER_OUTGOING_KEY.equals(key);
+        }
+        return false;
+    }
+
+    // "to <name>: ..." for whispers sent by the player
+    private static boolean isOutgoingWhisper(String messageString) {
+        if (messageString.regionMatches(true, 0, WHISPER_OUTGOING_PREFIX, 0, WHISPER_OUTGOING_PREFIX.length())) {
+            int colon = messageString.indexOf(": ", WHISPER_OUTGOING_PREFIX.length());
+            return colon > WHISPER_OUTGOING_PREFIX.length()
+                    && messageString.lastIndexOf(' ', colon - 1) == WHISPER_OUTGOING_PREFIX.length() - 1;
+        }
+        return false;
+    }
+}
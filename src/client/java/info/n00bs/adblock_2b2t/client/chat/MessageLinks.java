@@ -0,0 +1,38 @@
+package info.n00bs.adblock_2b2t.client.chat;
+
+import net.minecraft.text.ClickEvent;
+import net.minecraft.text.Style;
+import net.minecraft.text.Text;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Collects the targets of clickable links in a chat line, so ads that hide their URL
+ * behind innocent looking text are still checked against the domain rules.
+ */
+public final class MessageLinks {
+
+    private MessageLinks() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Collects the {@link ClickEvent.Action#OPEN_URL} targets in the text tree.
+     * @param message The message text
+     * @return The link targets in order, empty for messages without links
+     */
+    public static List<String> collect(Text message) {
+        List<String> links = new ArrayList<>(0);
+        message.visit((style, string) -> {
+            ClickEvent clickEvent = style.getClickEvent();
+            if (clickEvent != null && clickEvent.getAction() == ClickEvent.Action.OPEN_URL
+                    && !links.contains(clickEvent.getValue())) {
+                links.add(clickEvent.getValue()); // Each styled segment carries the event again
+            }
+            return Optional.empty();
+        }, Style.EMPTY);
+        return links.isEmpty() ? List.of() : links;
+    }
+}
@@ -0,0 +1,85 @@
+package info.n00bs.adblock_2b2t.client.chat;
+
+import info.n00bs.adblock_2b2t.client.config.FilterConfig;
+import info.n00bs.adblock_2b2t.client.filter.FilterRule;
+import info.n00bs.adblock_2b2t.client.filter.MessageFilter;
+import info.n00bs.adblock_2b2t.client.filter.MessageKind;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.client.gui.hud.MessageIndicator;
+import net.minecraft.text.Text;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Filters unsigned chat and game message packets on the network thread, before the client
+ * schedules them onto the main thread, updates the chat log, narrates them and runs other mods' hooks.
+ * <p>
+ * Signed player chat is left to the chat hook: dropping it here would break the sender's
+ * message chain and the acknowledgements the server expects.
+ */
+public final class PacketFilter {
+    // Messages hidden by the chat visibility option never reach the chat, so the map is bounded
+    private static final int MAX_PASSED_MESSAGES = 256;
+
+    // Messages this stage let through, with the rule set version they were checked against
+    private static final Map<String, Integer> passedMessages = new ConcurrentHashMap<>();
+
+    private PacketFilter() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Checks a message from a packet.
+     * Runs on the network thread; the handler's second call on the main thread is let through
+     * since the message has already been checked. Only the rule lookup runs here, which has no side effects.
+     * @param message The message as it will be added to chat
+     * @return true if the packet should be dropped
+     */
+    public static boolean shouldDrop(Text message) {
+        FilterConfig config = FilterConfig.getInstance();
+        MinecraftClient client = MinecraftClient.getInstance();
+        if (!config.isPacketFilteringEnabled() || client.isOnThread()) {
+            return false;
+        }
+
+        String messageString = message.getString();
+        MessageKind kind = MessageKinds.classify(message, messageString, null, MessageIndicator.system());
+        List<String> links = MessageLinks.collect(message);
+
+        MessageFilter filter = MessageFilter.getInstance();
+        int version = filter.getRuleSetVersion();
+        FilterRule rule = filter.getMatchingRule(messageString, kind, links);
+        if (rule == null) {
+            if (passedMessages.size() >= MAX_PASSED_MESSAGES) {
+                passedMessages.clear();
+            }
+            passedMessages.put(messageString, version); // Its verdict is recorded by the chat hook
+            return false;
+        }
+
+        // Dropped messages never reach the chat hook, so the verdict is recorded from here, on the client thread
+        client.execute(() -> filter.recordVerdict(messageString, kind, rule));
+
+        if (config.isDebugMode()) {
+            Text notice = BlockedMessageNotice.create(rule, kind, messageString);
+            client.execute(() -> client.inGameHud.getChatHud().addMessage(notice));
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a message reaching the chat was already let through by this stage,
+     * so the chat hook doesn't evaluate it a second time.
+     * @param messageString The plain string of the message
+     * @return true if the message was checked against the current rules
+     */
+    public static boolean wasPassed(String messageString) {
+        if (passedMessages.isEmpty()) {
+            return false;
+        }
+        Integer version = passedMessages.remove(messageString);
+        return version != null && version == MessageFilter.getInstance().getRuleSetVersion();
+    }
+}
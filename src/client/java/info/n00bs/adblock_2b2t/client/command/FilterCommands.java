@@ -4,22 +4,41 @@ import com.mojang.brigadier.CommandDispatcher;
 import com.mojang.brigadier.arguments.BoolArgumentType;
 import com.mojang.brigadier.arguments.IntegerArgumentType;
 import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
 import com.mojang.brigadier.context.CommandContext;
+import info.n00bs.adblock_2b2t.client.chat.ChatPurger;
 import info.n00bs.adblock_2b2t.client.config.FilterCategory;
 import info.n00bs.adblock_2b2t.client.config.FilterConfig;
+import info.n00bs.adblock_2b2t.client.filter.AllowList;
+import info.n00bs.adblock_2b2t.client.filter.BlockedHistory;
 import info.n00bs.adblock_2b2t.client.filter.MessageFilter;
+import info.n00bs.adblock_2b2t.client.filter.MessageKind;
+import info.n00bs.adblock_2b2t.client.filter.RuleType;
 import net.fabricmc.fabric.api.client.command.v2.ClientCommandManager;
 import net.fabricmc.fabric.api.client.command.v2.ClientCommandRegistrationCallback;
 import net.fabricmc.fabric.api.client.command.v2.FabricClientCommandSource;
+import net.minecraft.text.HoverEvent;
+import net.minecraft.text.Style;
 import net.minecraft.text.Text;
 import net.minecraft.util.Formatting;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Handles command registration and execution for the AdBlock mod.
  */
 public class FilterCommands {
+    private static final int HISTORY_PAGE_SIZE = 10;
+    private static final DateTimeFormatter HISTORY_TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+    private static final DateTimeFormatter HISTORY_FILE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneId.systemDefault());
 
     /**
      * Registers all commands for the AdBlock mod.
@@ -62,6 +81,22 @@ public class FilterCommands {
                             .executes(FilterCommands::executeSetRemoteUrl)
                         )
                     )
+                    .then(ClientCommandManager.literal("delta")
+                        .then(ClientCommandManager.literal("enable")
+                            .executes(context -> executeDeltaEnable(context, true))
+                        )
+                        .then(ClientCommandManager.literal("disable")
+                            .executes(context -> executeDeltaEnable(context, false))
+                        )
+                    )
+                    .then(ClientCommandManager.literal("shared")
+                        .then(ClientCommandManager.literal("disable")
+                            .executes(context -> executeSetSharedCache(context, ""))
+                        )
+                        .then(ClientCommandManager.argument("directory", StringArgumentType.greedyString())
+                            .executes(context -> executeSetSharedCache(context, StringArgumentType.getString(context, "directory")))
+                        )
+                    )
                 )
                 .then(ClientCommandManager.literal("custom")
                     .then(ClientCommandManager.literal("enable")
@@ -71,6 +106,13 @@ public class FilterCommands {
                         .executes(context -> executeCustomEnable(context, false))
                     )
                 )
+                .then(ClientCommandManager.literal("allow")
+                    .then(allowEntryCommand("add", true))
+                    .then(allowEntryCommand("remove", false))
+                    .then(ClientCommandManager.literal("list")
+                        .executes(FilterCommands::executeAllowList)
+                    )
+                )
                 .then(ClientCommandManager.literal("debug")
                     .then(ClientCommandManager.literal("enable")
                         .executes(context -> executeDebugEnable(context, true))
@@ -92,12 +134,106 @@ public class FilterCommands {
                         )
                     )
                 )
+                .then(ClientCommandManager.literal("purge")
+                    .executes(FilterCommands::executePurge)
+                    .then(ClientCommandManager.literal("enable")
+                        .executes(context -> executePurgeEnable(context, true))
+                    )
+                    .then(ClientCommandManager.literal("disable")
+                        .executes(context -> executePurgeEnable(context, false))
+                    )
+                )
+                .then(ClientCommandManager.literal("packet")
+                    .then(ClientCommandManager.literal("enable")
+                        .executes(context -> executePacketFilteringEnable(context, true))
+                    )
+                    .then(ClientCommandManager.literal("disable")
+                        .executes(context -> executePacketFilteringEnable(context, false))
+                    )
+                )
+                .then(ClientCommandManager.literal("classifier")
+                    .then(ClientCommandManager.literal("enable")
+                        .executes(context -> executeClassifierEnable(context, true))
+                    )
+                    .then(ClientCommandManager.literal("disable")
+                        .executes(context -> executeClassifierEnable(context, false))
+                    )
+                    .then(ClientCommandManager.literal("threshold")
+                        .then(ClientCommandManager.argument("percent", IntegerArgumentType.integer(50, 100))
+                            .executes(FilterCommands::executeSetClassifierThreshold)
+                        )
+                    )
+                )
+                .then(ClientCommandManager.literal("reputation")
+                    .then(ClientCommandManager.literal("enable")
+                        .executes(context -> executeReputationEnable(context, true))
+                    )
+                    .then(ClientCommandManager.literal("disable")
+                        .executes(context -> executeReputationEnable(context, false))
+                    )
+                    .then(ClientCommandManager.literal("threshold")
+                        .then(ClientCommandManager.argument("score", IntegerArgumentType.integer(1, 10))
+                            .executes(FilterCommands::executeSetReputationThreshold)
+                        )
+                    )
+                    .then(ClientCommandManager.literal("persist")
+                        .then(ClientCommandManager.literal("enable")
+                            .executes(context -> executeReputationPersist(context, true))
+                        )
+                        .then(ClientCommandManager.literal("disable")
+                            .executes(context -> executeReputationPersist(context, false))
+                        )
+                    )
+                    .then(ClientCommandManager.literal("clear")
+                        .executes(FilterCommands::executeReputationClear)
+                    )
+                )
+                .then(ClientCommandManager.literal("mark")
+                    .then(ClientCommandManager.literal("spam")
+                        .then(ClientCommandManager.argument("message", StringArgumentType.greedyString())
+                            .executes(context -> executeMark(context, true))
+                        )
+                    )
+                    .then(ClientCommandManager.literal("ham")
+                        .then(ClientCommandManager.argument("message", StringArgumentType.greedyString())
+                            .executes(context -> executeMark(context, false))
+                        )
+                    )
+                )
+                .then(ClientCommandManager.literal("history")
+                    .executes(context -> executeHistory(context, 1))
+                    .then(ClientCommandManager.literal("export")
+                        .executes(FilterCommands::executeHistoryExport)
+                    )
+                    .then(ClientCommandManager.argument("page", IntegerArgumentType.integer(1))
+                        .executes(context -> executeHistory(context, IntegerArgumentType.getInteger(context, "page")))
+                    )
+                )
                 .then(ClientCommandManager.literal("help")
                     .executes(FilterCommands::executeHelp)
                 )
         );
     }
 
+    /**
+     * Builds the add/remove subcommand of the allow command with one literal per entry type.
+     * 
+     * @param name The subcommand name
+     * @param add Whether the subcommand adds or removes entries
+     * @return The subcommand
+     */
+    private static LiteralArgumentBuilder<FabricClientCommandSource> allowEntryCommand(String name, boolean add) {
+        LiteralArgumentBuilder<FabricClientCommandSource> command = ClientCommandManager.literal(name);
+        for (String type : new String[] {AllowList.SENDER, AllowList.MESSAGE, AllowList.PREFIX}) {
+            command.then(ClientCommandManager.literal(type)
+                .then(ClientCommandManager.argument("value", StringArgumentType.greedyString())
+                    .executes(context -> executeAllowEntry(context, type, add))
+                )
+            );
+        }
+        return command;
+    }
+
     /**
      * Executes the enable/disable command.
      * 
@@ -134,15 +270,60 @@ public class FilterCommands {
                 .formatted(config.isUseRemoteFilters() ? Formatting.GREEN : Formatting.RED));
         context.getSource().sendFeedback(Text.literal("Remote URL: " + config.getRemoteUrl())
                 .formatted(Formatting.AQUA));
+        context.getSource().sendFeedback(Text.literal("Delta updates: " + config.isDeltaUpdatesEnabled())
+                .formatted(config.isDeltaUpdatesEnabled() ? Formatting.GREEN : Formatting.RED));
         context.getSource().sendFeedback(Text.literal("Auto-refresh: " + config.isAutoRefreshEnabled())
                 .formatted(config.isAutoRefreshEnabled() ? Formatting.GREEN : Formatting.RED));
         context.getSource().sendFeedback(Text.literal("Auto-refresh delay: " + config.getAutoRefreshDelay() + " minutes")
                 .formatted(Formatting.AQUA));
+        long nextRefresh = MessageFilter.getInstance().getMillisUntilNextAutoRefresh();
+        if (nextRefresh >= 0) {
+            context.getSource().sendFeedback(Text.literal("Next auto-refresh in: " + TimeUnit.MILLISECONDS.toMinutes(nextRefresh) + " minutes")
+                    .formatted(Formatting.AQUA));
+        }
+
+        Boolean sharedLeader = MessageFilter.getInstance().isSharedCacheLeader();
+        if (sharedLeader != null) {
+            context.getSource().sendFeedback(Text.literal("Shared cache: " + config.getSharedCacheDirectory()
+                    + (sharedLeader ? " (fetching for this machine)" : " (following another client)"))
+                    .formatted(Formatting.AQUA));
+        }
 
         context.getSource().sendFeedback(Text.literal("Custom filters: " + config.isUseCustomFilters())
                 .formatted(config.isUseCustomFilters() ? Formatting.GREEN : Formatting.RED));
+        context.getSource().sendFeedback(Text.literal("Purge on refresh: " + config.isPurgeOnRefresh())
+                .formatted(config.isPurgeOnRefresh() ? Formatting.GREEN : Formatting.RED));
+        context.getSource().sendFeedback(Text.literal("Packet filtering: " + config.isPacketFilteringEnabled())
+                .formatted(config.isPacketFilteringEnabled() ? Formatting.GREEN : Formatting.RED));
         context.getSource().sendFeedback(Text.literal("Debug mode: " + config.isDebugMode())
                 .formatted(config.isDebugMode() ? Formatting.GREEN : Formatting.RED));
+
+        MessageFilter filter = MessageFilter.getInstance();
+        context.getSource().sendFeedback(Text.literal("Spam classifier: " + config.isClassifierEnabled()
+                + " (threshold " + Math.round(config.getClassifierThreshold() * 100) + "%, "
+                + filter.getClassifier().getSpamExamples() + " spam / " + filter.getClassifier().getHamExamples() + " ham examples)")
+                .formatted(config.isClassifierEnabled() ? Formatting.GREEN : Formatting.RED));
+        context.getSource().sendFeedback(Text.literal("Sender reputation: " + config.isReputationEnabled()
+                + " (threshold " + config.getReputationThreshold() + ", "
+                + filter.getReputation().countBlocked(config.getReputationThreshold(), System.currentTimeMillis()) + " of "
+                + filter.getReputation().size() + " tracked senders blocked"
+                + (config.isReputationPersisted() ? ", persisted)" : ")"))
+                .formatted(config.isReputationEnabled() ? Formatting.GREEN : Formatting.RED));
+
+        StringBuilder ruleCounts = new StringBuilder("Rules per message kind:");
+        for (MessageKind kind : MessageKind.values()) {
+            ruleCounts.append(' ').append(kind.getKeyword()).append('=').append(filter.getRuleCount(kind));
+        }
+        context.getSource().sendFeedback(Text.literal(ruleCounts.toString()).formatted(Formatting.AQUA));
+
+        StringBuilder typeCounts = new StringBuilder("Rules per type:");
+        for (RuleType type : RuleType.values()) {
+            typeCounts.append(' ').append(type.getKeyword()).append('=').append(filter.getRuleCount(type));
+        }
+        context.getSource().sendFeedback(Text.literal(typeCounts.toString()).formatted(Formatting.AQUA));
+        context.getSource().sendFeedback(Text.literal("Rule memory: " + (filter.getRuleMemoryUsage() + 1023) / 1024 + " KiB, "
+                + filter.getCompiledRegexCount() + "/" + filter.getRuleCount(RuleType.REGEX) + " regexes compiled")
+                .formatted(Formatting.AQUA));
         return 1;
     }
 
@@ -158,6 +339,8 @@ public class FilterCommands {
         CompletableFuture<Void> future = MessageFilter.getInstance().refreshFilters();
         future.thenRun(() -> {
             context.getSource().sendFeedback(Text.literal("Filters refreshed successfully").formatted(Formatting.GREEN));
+            // Also remove messages already in chat that the refreshed rules block
+            ChatPurger.getInstance().requestPurge();
         });
 
         return 1;
@@ -205,6 +388,25 @@ public class FilterCommands {
         return 1;
     }
 
+    /**
+     * Executes the remote delta enable/disable command.
+     * 
+     * @param context The command context
+     * @param enable Whether to enable or disable delta updates
+     * @return 1 for success
+     */
+    private static int executeDeltaEnable(CommandContext<FabricClientCommandSource> context, boolean enable) {
+        FilterConfig.getInstance().setDeltaUpdatesEnabled(enable);
+
+        if (enable) {
+            context.getSource().sendFeedback(Text.literal("Delta updates have been enabled. Only changes to the remote list will be downloaded when the host supports it.").formatted(Formatting.GREEN));
+        } else {
+            context.getSource().sendFeedback(Text.literal("Delta updates have been disabled. The remote list will always be downloaded in full.").formatted(Formatting.RED));
+        }
+
+        return 1;
+    }
+
     /**
      * Executes the custom enable/disable command.
      * 
@@ -225,6 +427,55 @@ public class FilterCommands {
         return 1;
     }
 
+    /**
+     * Executes the allow add/remove command.
+     * 
+     * @param context The command context
+     * @param type The entry type (sender, message or prefix)
+     * @param add Whether to add or remove the entry
+     * @return 1 for success
+     */
+    private static int executeAllowEntry(CommandContext<FabricClientCommandSource> context, String type, boolean add) {
+        String value = StringArgumentType.getString(context, "value");
+        MessageFilter filter = MessageFilter.getInstance();
+
+        if (add) {
+            if (filter.addAllowEntry(type, value)) {
+                context.getSource().sendFeedback(Text.literal("Added to allow list: " + type + ":" + value).formatted(Formatting.GREEN));
+            } else {
+                context.getSource().sendFeedback(Text.literal("Could not add " + type + ":" + value + " (already allowed?)").formatted(Formatting.RED));
+            }
+        } else {
+            if (filter.removeAllowEntry(type, value)) {
+                context.getSource().sendFeedback(Text.literal("Removed from allow list: " + type + ":" + value).formatted(Formatting.GREEN));
+            } else {
+                context.getSource().sendFeedback(Text.literal("Not on the allow list: " + type + ":" + value).formatted(Formatting.RED));
+            }
+        }
+
+        return 1;
+    }
+
+    /**
+     * Executes the allow list command.
+     * 
+     * @param context The command context
+     * @return 1 for success
+     */
+    private static int executeAllowList(CommandContext<FabricClientCommandSource> context) {
+        List<String> entries = MessageFilter.getInstance().getAllowEntries();
+
+        context.getSource().sendFeedback(Text.literal("=== AdBlock Allow List ===").formatted(Formatting.GOLD));
+        if (entries.isEmpty()) {
+            context.getSource().sendFeedback(Text.literal("The allow list is empty.").formatted(Formatting.YELLOW));
+        }
+        for (String entry : entries) {
+            context.getSource().sendFeedback(Text.literal(entry).formatted(Formatting.AQUA));
+        }
+
+        return 1;
+    }
+
     /**
      * Executes the debug enable/disable command.
      * 
@@ -259,8 +510,8 @@ public class FilterCommands {
         MessageFilter.getInstance().startAutoRefreshIfEnabled();
 
         if (enable) {
-            context.getSource().sendFeedback(Text.literal("Auto-refresh has been enabled. Remote filters will refresh every " 
-                    + config.getAutoRefreshDelay() + " minutes.").formatted(Formatting.GREEN));
+            context.getSource().sendFeedback(Text.literal("Auto-refresh has been enabled. Remote filters will refresh about every " 
+                    + config.getAutoRefreshDelay() + " minutes, less often while the list is unchanged.").formatted(Formatting.GREEN));
         } else {
             context.getSource().sendFeedback(Text.literal("Auto-refresh has been disabled.").formatted(Formatting.RED));
         }
@@ -292,6 +543,261 @@ public class FilterCommands {
         return 1;
     }
 
+    /**
+     * Executes the purge command.
+     * 
+     * @param context The command context
+     * @return 1 for success
+     */
+    private static int executePurge(CommandContext<FabricClientCommandSource> context) {
+        ChatPurger.getInstance().requestPurge();
+        context.getSource().sendFeedback(Text.literal("Removing blocked messages from chat...").formatted(Formatting.YELLOW));
+
+        return 1;
+    }
+
+    /**
+     * Executes the history command.
+     * 
+     * @param context The command context
+     * @param page The page to show, starting at 1 with the newest messages
+     * @return 1 for success
+     */
+    private static int executeHistory(CommandContext<FabricClientCommandSource> context, int page) {
+        BlockedHistory history = MessageFilter.getInstance().getHistory();
+        long total = Math.min(history.getTotalRecorded(), BlockedHistory.CAPACITY);
+        long pages = Math.max(1, (total + HISTORY_PAGE_SIZE - 1) / HISTORY_PAGE_SIZE);
+        page = (int) Math.min(page, pages); // Past the last page shows the last page, and the offset can't overflow
+
+        context.getSource().sendFeedback(Text.literal("=== Blocked Messages (page " + page + "/" + pages + ") ===").formatted(Formatting.GOLD));
+        List<BlockedHistory.Entry> entries = history.getEntries((page - 1) * HISTORY_PAGE_SIZE, HISTORY_PAGE_SIZE);
+        if (entries.isEmpty()) {
+            context.getSource().sendFeedback(Text.literal(page == 1 ? "No messages have been blocked yet." : "No messages on this page.")
+                    .formatted(Formatting.YELLOW));
+        }
+        for (BlockedHistory.Entry entry : entries) {
+            HoverEvent hoverEvent = new HoverEvent(
+                HoverEvent.Action.SHOW_TEXT,
+                Text.literal("expression: " + entry.ruleSource() + "\n").formatted(Formatting.GOLD)
+                    .append(Text.literal("Message kind: " + (entry.kind() != null ? entry.kind().getKeyword() : "unknown")).formatted(Formatting.GOLD))
+            );
+            String rule = entry.category() + (entry.ruleIndex() >= 0 ? " #" + entry.ruleIndex() : "");
+            context.getSource().sendFeedback(Text.literal(HISTORY_TIME_FORMAT.format(Instant.ofEpochMilli(entry.time())) + " ").formatted(Formatting.GRAY)
+                    .append(Text.literal(rule).setStyle(Style.EMPTY.withColor(Formatting.RED).withHoverEvent(hoverEvent)))
+                    .append(Text.literal(": " + entry.message() + (entry.truncated() ? "..." : "")).formatted(Formatting.WHITE)));
+        }
+        if (page < pages) {
+            context.getSource().sendFeedback(Text.literal("Use /adblock history " + (page + 1) + " for older messages.").formatted(Formatting.YELLOW));
+        }
+
+        return 1;
+    }
+
+    /**
+     * Executes the history export command.
+     * 
+     * @param context The command context
+     * @return 1 for success
+     */
+    private static int executeHistoryExport(CommandContext<FabricClientCommandSource> context) {
+        Path path = Paths.get(FilterConfig.getInstance().getConfigDirectory(),
+                "blocked-" + HISTORY_FILE_TIME_FORMAT.format(Instant.now()) + ".txt");
+        try {
+            int count = MessageFilter.getInstance().getHistory().export(path);
+            context.getSource().sendFeedback(Text.literal("Exported " + count + " blocked messages to " + path).formatted(Formatting.GREEN));
+        } catch (IOException e) {
+            context.getSource().sendError(Text.literal("Failed to export the blocked messages: " + e.getMessage()));
+        }
+
+        return 1;
+    }
+
+    /**
+     * Executes the purge enable/disable command.
+     * 
+     * @param context The command context
+     * @param enable Whether to purge chat automatically after refreshes
+     * @return 1 for success
+     */
+    private static int executePurgeEnable(CommandContext<FabricClientCommandSource> context, boolean enable) {
+        FilterConfig.getInstance().setPurgeOnRefresh(enable);
+
+        if (enable) {
+            context.getSource().sendFeedback(Text.literal("Chat will be purged of newly blocked messages after every refresh.").formatted(Formatting.GREEN));
+        } else {
+            context.getSource().sendFeedback(Text.literal("Chat will no longer be purged automatically after refreshes.").formatted(Formatting.RED));
+        }
+
+        return 1;
+    }
+
+    /**
+     * Executes the remote shared cache command.
+     * 
+     * @param context The command context
+     * @param directory The directory shared with the other clients on this machine, or empty to stop sharing
+     * @return 1 for success
+     */
+    private static int executeSetSharedCache(CommandContext<FabricClientCommandSource> context, String directory) {
+        FilterConfig.getInstance().setSharedCacheDirectory(directory);
+
+        if (directory.isBlank()) {
+            context.getSource().sendFeedback(Text.literal("The remote list is no longer shared. This client fetches it on its own.").formatted(Formatting.RED));
+        } else {
+            context.getSource().sendFeedback(Text.literal("The remote list is now shared through " + directory.trim()
+                    + ". One client fetches it for all clients using this directory.").formatted(Formatting.GREEN));
+        }
+
+        if (FilterConfig.getInstance().isUseRemoteFilters()) {
+            executeRefresh(context);
+        }
+
+        return 1;
+    }
+
+    /**
+     * Executes the packet filtering enable/disable command.
+     * 
+     * @param context The command context
+     * @param enable Whether to drop blocked messages when their packet arrives
+     * @return 1 for success
+     */
+    private static int executePacketFilteringEnable(CommandContext<FabricClientCommandSource> context, boolean enable) {
+        FilterConfig.getInstance().setPacketFilteringEnabled(enable);
+
+        if (enable) {
+            context.getSource().sendFeedback(Text.literal("Blocked messages will be dropped as soon as their packet arrives.").formatted(Formatting.GREEN));
+        } else {
+            context.getSource().sendFeedback(Text.literal("Blocked messages will only be filtered when added to chat.").formatted(Formatting.RED));
+        }
+
+        return 1;
+    }
+
+    /**
+     * Executes the classifier enable/disable command.
+     * 
+     * @param context The command context
+     * @param enable Whether to enable or disable the spam classifier
+     * @return 1 for success
+     */
+    private static int executeClassifierEnable(CommandContext<FabricClientCommandSource> context, boolean enable) {
+        FilterConfig.getInstance().setClassifierEnabled(enable);
+
+        if (enable) {
+            context.getSource().sendFeedback(Text.literal("Spam classifier has been enabled. It learns from blocked messages and starts blocking once it has seen enough examples.").formatted(Formatting.GREEN));
+            if (!MessageFilter.getInstance().getClassifier().isTrained()) {
+                context.getSource().sendFeedback(Text.literal("Note: The classifier is still learning. Use /adblock mark spam|ham <message> to speed this up.")
+                        .formatted(Formatting.YELLOW));
+            }
+        } else {
+            context.getSource().sendFeedback(Text.literal("Spam classifier has been disabled.").formatted(Formatting.RED));
+        }
+
+        return 1;
+    }
+
+    /**
+     * Executes the set classifier threshold command.
+     * 
+     * @param context The command context
+     * @return 1 for success
+     */
+    private static int executeSetClassifierThreshold(CommandContext<FabricClientCommandSource> context) {
+        int percent = IntegerArgumentType.getInteger(context, "percent");
+        FilterConfig.getInstance().setClassifierThreshold(percent / 100.0);
+
+        context.getSource().sendFeedback(Text.literal("Spam classifier threshold set to " + percent + "%.").formatted(Formatting.GREEN));
+
+        return 1;
+    }
+
+    /**
+     * Executes the reputation enable/disable command.
+     * 
+     * @param context The command context
+     * @param enable Whether to enable or disable sender reputation
+     * @return 1 for success
+     */
+    private static int executeReputationEnable(CommandContext<FabricClientCommandSource> context, boolean enable) {
+        FilterConfig.getInstance().setReputationEnabled(enable);
+
+        if (enable) {
+            context.getSource().sendFeedback(Text.literal("Sender reputation has been enabled. Senders whose messages keep matching rules are blocked entirely for a while.").formatted(Formatting.GREEN));
+        } else {
+            context.getSource().sendFeedback(Text.literal("Sender reputation has been disabled.").formatted(Formatting.RED));
+        }
+
+        return 1;
+    }
+
+    /**
+     * Executes the set reputation threshold command.
+     * 
+     * @param context The command context
+     * @return 1 for success
+     */
+    private static int executeSetReputationThreshold(CommandContext<FabricClientCommandSource> context) {
+        int score = IntegerArgumentType.getInteger(context, "score");
+        FilterConfig.getInstance().setReputationThreshold(score);
+
+        context.getSource().sendFeedback(Text.literal("Senders are now blocked after " + score + " recently blocked messages.").formatted(Formatting.GREEN));
+
+        return 1;
+    }
+
+    /**
+     * Executes the reputation persist enable/disable command.
+     * 
+     * @param context The command context
+     * @param enable Whether to keep sender scores across sessions
+     * @return 1 for success
+     */
+    private static int executeReputationPersist(CommandContext<FabricClientCommandSource> context, boolean enable) {
+        FilterConfig.getInstance().setReputationPersisted(enable);
+
+        if (enable) {
+            context.getSource().sendFeedback(Text.literal("Sender scores will be kept across sessions.").formatted(Formatting.GREEN));
+        } else {
+            context.getSource().sendFeedback(Text.literal("Sender scores will be forgotten when the game closes.").formatted(Formatting.YELLOW));
+        }
+
+        return 1;
+    }
+
+    /**
+     * Executes the reputation clear command.
+     * 
+     * @param context The command context
+     * @return 1 for success
+     */
+    private static int executeReputationClear(CommandContext<FabricClientCommandSource> context) {
+        MessageFilter filter = MessageFilter.getInstance();
+        int senders = filter.getReputation().size();
+        filter.getReputation().clear();
+        filter.saveReputation();
+
+        context.getSource().sendFeedback(Text.literal("Forgot the scores of " + senders + " senders.").formatted(Formatting.GREEN));
+
+        return 1;
+    }
+
+    /**
+     * Executes the mark spam/ham command.
+     * 
+     * @param context The command context
+     * @param spam Whether the message is spam or ham
+     * @return 1 for success
+     */
+    private static int executeMark(CommandContext<FabricClientCommandSource> context, boolean spam) {
+        String message = StringArgumentType.getString(context, "message");
+        MessageFilter.getInstance().markMessage(message, spam);
+
+        context.getSource().sendFeedback(Text.literal("Message marked as " + (spam ? "spam" : "ham") + ".").formatted(Formatting.GREEN));
+
+        return 1;
+    }
+
     /**
      * Executes the help command.
      * 
@@ -312,14 +818,46 @@ public class FilterCommands {
                 .append(Text.literal(" - Enable/disable remote filters").formatted(Formatting.WHITE)));
         context.getSource().sendFeedback(Text.literal("/adblock remote url <url>").formatted(Formatting.YELLOW)
                 .append(Text.literal(" - Set remote filter URL").formatted(Formatting.WHITE)));
+        context.getSource().sendFeedback(Text.literal("/adblock remote delta enable|disable").formatted(Formatting.YELLOW)
+                .append(Text.literal(" - Enable/disable downloading only the changes of the remote list").formatted(Formatting.WHITE)));
+        context.getSource().sendFeedback(Text.literal("/adblock remote shared <directory>|disable").formatted(Formatting.YELLOW)
+                .append(Text.literal(" - Share the remote list with other clients on this machine, fetched by one of them").formatted(Formatting.WHITE)));
         context.getSource().sendFeedback(Text.literal("/adblock custom enable|disable").formatted(Formatting.YELLOW)
                 .append(Text.literal(" - Enable/disable custom filters").formatted(Formatting.WHITE)));
+        context.getSource().sendFeedback(Text.literal("/adblock allow add|remove sender|message|prefix <value>").formatted(Formatting.YELLOW)
+                .append(Text.literal(" - Never filter messages from a sender, an exact message or messages starting with a prefix").formatted(Formatting.WHITE)));
+        context.getSource().sendFeedback(Text.literal("/adblock allow list").formatted(Formatting.YELLOW)
+                .append(Text.literal(" - Show the allow list").formatted(Formatting.WHITE)));
         context.getSource().sendFeedback(Text.literal("/adblock debug enable|disable").formatted(Formatting.YELLOW)
                 .append(Text.literal(" - Enable/disable debug mode (shows blocked messages with hover info)").formatted(Formatting.WHITE)));
         context.getSource().sendFeedback(Text.literal("/adblock autorefresh enable|disable").formatted(Formatting.YELLOW)
                 .append(Text.literal(" - Enable/disable automatic refreshing of remote filters").formatted(Formatting.WHITE)));
         context.getSource().sendFeedback(Text.literal("/adblock autorefresh delay <minutes>").formatted(Formatting.YELLOW)
-                .append(Text.literal(" - Set the delay between automatic refreshes (in minutes)").formatted(Formatting.WHITE)));
+                .append(Text.literal(" - Set the base delay between automatic refreshes (in minutes)").formatted(Formatting.WHITE)));
+        context.getSource().sendFeedback(Text.literal("/adblock purge").formatted(Formatting.YELLOW)
+                .append(Text.literal(" - Remove messages matching the current filters from chat").formatted(Formatting.WHITE)));
+        context.getSource().sendFeedback(Text.literal("/adblock purge enable|disable").formatted(Formatting.YELLOW)
+                .append(Text.literal(" - Enable/disable purging chat automatically after refreshes").formatted(Formatting.WHITE)));
+        context.getSource().sendFeedback(Text.literal("/adblock packet enable|disable").formatted(Formatting.YELLOW)
+                .append(Text.literal(" - Enable/disable dropping blocked messages before the client processes them").formatted(Formatting.WHITE)));
+        context.getSource().sendFeedback(Text.literal("/adblock classifier enable|disable").formatted(Formatting.YELLOW)
+                .append(Text.literal(" - Enable/disable the spam classifier").formatted(Formatting.WHITE)));
+        context.getSource().sendFeedback(Text.literal("/adblock classifier threshold <percent>").formatted(Formatting.YELLOW)
+                .append(Text.literal(" - Set the spam probability at which the classifier blocks").formatted(Formatting.WHITE)));
+        context.getSource().sendFeedback(Text.literal("/adblock reputation enable|disable").formatted(Formatting.YELLOW)
+                .append(Text.literal(" - Enable/disable blocking senders whose messages keep matching rules").formatted(Formatting.WHITE)));
+        context.getSource().sendFeedback(Text.literal("/adblock reputation threshold <score>").formatted(Formatting.YELLOW)
+                .append(Text.literal(" - Set how many recently blocked messages get a sender blocked").formatted(Formatting.WHITE)));
+        context.getSource().sendFeedback(Text.literal("/adblock reputation persist enable|disable").formatted(Formatting.YELLOW)
+                .append(Text.literal(" - Keep sender scores across sessions").formatted(Formatting.WHITE)));
+        context.getSource().sendFeedback(Text.literal("/adblock reputation clear").formatted(Formatting.YELLOW)
+                .append(Text.literal(" - Forget all sender scores").formatted(Formatting.WHITE)));
+        context.getSource().sendFeedback(Text.literal("/adblock mark spam|ham <message>").formatted(Formatting.YELLOW)
+                .append(Text.literal(" - Teach the spam classifier a message").formatted(Formatting.WHITE)));
+        context.getSource().sendFeedback(Text.literal("/adblock history [page]").formatted(Formatting.YELLOW)
+                .append(Text.literal(" - Show the last blocked messages, hover the rule for details").formatted(Formatting.WHITE)));
+        context.getSource().sendFeedback(Text.literal("/adblock history export").formatted(Formatting.YELLOW)
+                .append(Text.literal(" - Save the blocked message history to a file").formatted(Formatting.WHITE)));
 
         return 1;
     }
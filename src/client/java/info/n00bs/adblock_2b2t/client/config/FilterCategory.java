@@ -6,9 +6,19 @@ package info.n00bs.adblock_2b2t.client.config;
 public class FilterCategory {
     public static final String REMOTE_FILTERS_FILENAME = "remote.txt";
     public static final String CUSTOM_FILTERS_FILENAME = "custom.txt";
+    public static final String ALLOW_LIST_FILENAME = "allow.txt";
+    public static final String REMOTE_VERSION_FILENAME = "remote.version";
+    public static final String CLASSIFIER_MODEL_FILENAME = "classifier.bin";
+    public static final String REPUTATION_FILENAME = "reputation.bin";
+
+    public static final String REMOTE_FILTERS_TYPE = "REMOTE";
+    public static final String CUSTOM_FILTERS_TYPE = "CUSTOM";
+    public static final String CLASSIFIER_TYPE = "CLASSIFIER";
+    public static final String SENDER_TYPE = "SENDER";
 
     public static final String REMOTE_FILTERS_DISPLAY_NAME = "Remote Filters";
     public static final String CUSTOM_FILTERS_DISPLAY_NAME = "Custom Filters";
+    public static final String ALLOW_LIST_DISPLAY_NAME = "Allow List";
 
     public static final String REMOTE_FILTERS_DESCRIPTION = "Filters loaded from remote source";
     public static final String CUSTOM_FILTERS_DESCRIPTION = "User-defined custom filters";
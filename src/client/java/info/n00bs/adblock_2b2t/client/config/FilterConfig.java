@@ -29,6 +29,15 @@ public class FilterConfig {
     private boolean debugMode = false; // Debug mode to show blocked messages
     private boolean autoRefreshEnabled = true; // Auto refresh remote filters
     private int autoRefreshDelay = 5; // Auto refresh delay in minutes
+    private boolean deltaUpdatesEnabled = true; // Fetch only the changes of the remote list when the host supports it
+    private boolean classifierEnabled = false; // Statistical spam classifier in front of the rules
+    private double classifierThreshold = 0.95; // Spam probability at which the classifier blocks a message
+    private boolean purgeOnRefresh = true; // Remove already displayed messages matching newly loaded rules
+    private boolean packetFilteringEnabled = true; // Drop blocked messages when their packet arrives
+    private String sharedCacheDirectory = ""; // Remote list cache shared by the clients on this machine, empty if unused
+    private boolean reputationEnabled = false; // Block senders whose messages keep matching rules, opt-in
+    private double reputationThreshold = 3.0; // Sender score at which all their messages are blocked
+    private boolean reputationPersisted = true; // Keep sender scores across sessions
 
     public FilterConfig() {
         // Create config directories if they don't exist
@@ -63,7 +72,24 @@ public class FilterConfig {
                 Files.createFile(customFile);
                 Files.writeString(customFile, "# " + FilterCategory.CUSTOM_FILTERS_DISPLAY_NAME + "\n" +
                         "# One pattern per line. Lines starting with # are comments.\n" +
-                        "# Example: buy.*items\n");
+                        "# Prefix a pattern with @chat:, @whisper: or @system: (comma separated)\n" +
+                        "# to only apply it to those kinds of messages.\n" +
+                        "# Add exact, word, domain or regex to the prefix to choose how it matches;\n" +
+                        "# plain text without regex characters is matched as exact text.\n" +
+                        "# Example: buy.*items\n" +
+                        "# Example: @chat,whisper:cheap\\s+kits\n" +
+                        "# Example: @domain:shop.gg\n" +
+                        "# Example: @whisper,word:dupe\n");
+            }
+
+            // Create allow list file if it doesn't exist
+            Path allowFile = Paths.get(FILTERS_DIR, FilterCategory.ALLOW_LIST_FILENAME);
+            if (!Files.exists(allowFile)) {
+                Files.createFile(allowFile);
+                Files.writeString(allowFile, "# " + FilterCategory.ALLOW_LIST_DISPLAY_NAME + "\n" +
+                        "# Messages matching an entry are never filtered. Lines starting with # are comments.\n" +
+                        "# sender:<name>, message:<exact message> or prefix:<message start>, case-insensitive.\n" +
+                        "# Example: sender:Philipp_DE\n");
             }
         } catch (IOException e) {
             System.err.println("Failed to create config directories: " + e.getMessage());
@@ -111,6 +137,10 @@ public class FilterConfig {
         return FILTERS_DIR;
     }
 
+    public String getConfigDirectory() {
+        return CONFIG_DIR;
+    }
+
     public boolean isDebugMode() {
         return debugMode;
     }
@@ -141,6 +171,87 @@ public class FilterConfig {
         saveConfig();
     }
 
+    public boolean isDeltaUpdatesEnabled() {
+        return deltaUpdatesEnabled;
+    }
+
+    public void setDeltaUpdatesEnabled(boolean deltaUpdatesEnabled) {
+        this.deltaUpdatesEnabled = deltaUpdatesEnabled;
+        saveConfig();
+    }
+
+    public boolean isClassifierEnabled() {
+        return classifierEnabled;
+    }
+
+    public void setClassifierEnabled(boolean classifierEnabled) {
+        this.classifierEnabled = classifierEnabled;
+        saveConfig();
+    }
+
+    public double getClassifierThreshold() {
+        return classifierThreshold;
+    }
+
+    public void setClassifierThreshold(double classifierThreshold) {
+        this.classifierThreshold = Math.min(1.0, Math.max(0.5, classifierThreshold));
+        saveConfig();
+    }
+
+    public boolean isPurgeOnRefresh() {
+        return purgeOnRefresh;
+    }
+
+    public void setPurgeOnRefresh(boolean purgeOnRefresh) {
+        this.purgeOnRefresh = purgeOnRefresh;
+        saveConfig();
+    }
+
+    public boolean isPacketFilteringEnabled() {
+        return packetFilteringEnabled;
+    }
+
+    public void setPacketFilteringEnabled(boolean packetFilteringEnabled) {
+        this.packetFilteringEnabled = packetFilteringEnabled;
+        saveConfig();
+    }
+
+    public String getSharedCacheDirectory() {
+        return sharedCacheDirectory;
+    }
+
+    public void setSharedCacheDirectory(String sharedCacheDirectory) {
+        this.sharedCacheDirectory = sharedCacheDirectory.trim();
+        saveConfig();
+    }
+
+    public boolean isReputationEnabled() {
+        return reputationEnabled;
+    }
+
+    public void setReputationEnabled(boolean reputationEnabled) {
+        this.reputationEnabled = reputationEnabled;
+        saveConfig();
+    }
+
+    public double getReputationThreshold() {
+        return reputationThreshold;
+    }
+
+    public void setReputationThreshold(double reputationThreshold) {
+        this.reputationThreshold = Math.min(10.0, Math.max(1.0, reputationThreshold));
+        saveConfig();
+    }
+
+    public boolean isReputationPersisted() {
+        return reputationPersisted;
+    }
+
+    public void setReputationPersisted(boolean reputationPersisted) {
+        this.reputationPersisted = reputationPersisted;
+        saveConfig();
+    }
+
     /**
      * Saves the current configuration to a JSON file.
      */
@@ -161,6 +272,15 @@ public class FilterConfig {
             config.addProperty("debugMode", debugMode);
             config.addProperty("autoRefreshEnabled", autoRefreshEnabled);
             config.addProperty("autoRefreshDelay", autoRefreshDelay);
+            config.addProperty("deltaUpdatesEnabled", deltaUpdatesEnabled);
+            config.addProperty("classifierEnabled", classifierEnabled);
+            config.addProperty("classifierThreshold", classifierThreshold);
+            config.addProperty("purgeOnRefresh", purgeOnRefresh);
+            config.addProperty("packetFilteringEnabled", packetFilteringEnabled);
+            config.addProperty("sharedCacheDirectory", sharedCacheDirectory);
+            config.addProperty("reputationEnabled", reputationEnabled);
+            config.addProperty("reputationThreshold", reputationThreshold);
+            config.addProperty("reputationPersisted", reputationPersisted);
 
             // Write to file
             try (FileWriter writer = new FileWriter(CONFIG_FILE)) {
@@ -220,6 +340,42 @@ public class FilterConfig {
                 }
             }
 
+            if (config.has("deltaUpdatesEnabled")) {
+                deltaUpdatesEnabled = config.get("deltaUpdatesEnabled").getAsBoolean();
+            }
+
+            if (config.has("classifierEnabled")) {
+                classifierEnabled = config.get("classifierEnabled").getAsBoolean();
+            }
+
+            if (config.has("classifierThreshold")) {
+                classifierThreshold = Math.min(1.0, Math.max(0.5, config.get("classifierThreshold").getAsDouble()));
+            }
+
+            if (config.has("purgeOnRefresh")) {
+                purgeOnRefresh = config.get("purgeOnRefresh").getAsBoolean();
+            }
+
+            if (config.has("packetFilteringEnabled")) {
+                packetFilteringEnabled = config.get("packetFilteringEnabled").getAsBoolean();
+            }
+
+            if (config.has("sharedCacheDirectory")) {
+                sharedCacheDirectory = config.get("sharedCacheDirectory").getAsString().trim();
+            }
+
+            if (config.has("reputationEnabled")) {
+                reputationEnabled = config.get("reputationEnabled").getAsBoolean();
+            }
+
+            if (config.has("reputationThreshold")) {
+                reputationThreshold = Math.min(10.0, Math.max(1.0, config.get("reputationThreshold").getAsDouble()));
+            }
+
+            if (config.has("reputationPersisted")) {
+                reputationPersisted = config.get("reputationPersisted").getAsBoolean();
+            }
+
             System.out.println("AdBlock configuration loaded from " + CONFIG_FILE);
         } catch (IOException e) {
             System.err.println("Failed to load configuration: " + e.getMessage());
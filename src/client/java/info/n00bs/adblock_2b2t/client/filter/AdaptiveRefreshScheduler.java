@@ -0,0 +1,136 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Schedules remote filter refreshes with an interval that adapts to the remote list.
+ * Unchanged fetches stretch the interval, changes shrink it back towards the base delay
+ * and failures back off exponentially. Every delay is jittered so clients don't fetch in lockstep.
+ */
+public class AdaptiveRefreshScheduler {
+    private static final double STRETCH_FACTOR = 1.5; // Growth per unchanged fetch
+    private static final int MAX_STRETCH = 8; // Interval never exceeds 8x the base delay
+    private static final int MAX_BACKOFF_SHIFT = 4; // Failure backoff doubles up to 16x the base delay, before jitter
+    private static final double JITTER = 0.2; // +/- 20% on regular intervals
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "AdBlock-Refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Supplier<CompletableFuture<RefreshOutcome>> task;
+
+    private ScheduledFuture<?> pending;
+    private long baseMillis;
+    private long intervalMillis;
+    private int failures;
+    private long nextRunAt;
+
+    /**
+     * Creates a scheduler for the given refresh task.
+     * @param task Performs one refresh and reports whether the list changed
+     */
+    public AdaptiveRefreshScheduler(Supplier<CompletableFuture<RefreshOutcome>> task) {
+        this.task = task;
+    }
+
+    /**
+     * Starts (or restarts) scheduling with the given base delay.
+     * @param baseMinutes The delay used after a change and as the unit for stretching and backoff
+     */
+    public synchronized void start(int baseMinutes) {
+        stop();
+        baseMillis = TimeUnit.MINUTES.toMillis(Math.max(1, baseMinutes));
+        intervalMillis = baseMillis;
+        failures = 0;
+        schedule(jitter(intervalMillis));
+    }
+
+    /**
+     * Stops scheduling. A refresh that is already running is allowed to finish.
+     * @return true if a refresh was scheduled
+     */
+    public synchronized boolean stop() {
+        if (pending == null) {
+            return false;
+        }
+        pending.cancel(false);
+        pending = null;
+        return true;
+    }
+
+    /**
+     * Gets the time until the next scheduled refresh.
+     * @return The delay in milliseconds, or -1 if no refresh is scheduled
+     */
+    public synchronized long getMillisUntilNextRun() {
+        if (pending == null) {
+            return -1;
+        }
+        return Math.max(0, nextRunAt - System.currentTimeMillis());
+    }
+
+    private void schedule(long delayMillis) {
+        nextRunAt = System.currentTimeMillis() + delayMillis;
+        pending = executor.schedule(this::run, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void run() {
+        ScheduledFuture<?> current;
+        synchronized (this) {
+            current = pending;
+            if (current == null) {
+                return; // Stopped before the refresh started
+            }
+        }
+
+        RefreshOutcome outcome;
+        try {
+            outcome = task.get().join();
+        } catch (RuntimeException e) {
+            System.err.println("Auto-refresh failed: " + e.getMessage());
+            outcome = RefreshOutcome.FAILED;
+        }
+
+        synchronized (this) {
+            // Stopped or restarted while the refresh was running
+            if (pending != current) {
+                return;
+            }
+            long delay = nextDelay(outcome);
+            schedule(delay);
+            System.out.println("Next auto-refresh in " + TimeUnit.MILLISECONDS.toSeconds(delay) + " seconds (" + outcome + ")");
+        }
+    }
+
+    private long nextDelay(RefreshOutcome outcome) {
+        switch (outcome) {
+            case CHANGED:
+                failures = 0;
+                intervalMillis = Math.max(baseMillis, intervalMillis / 2);
+                return jitter(intervalMillis);
+            case UNCHANGED:
+                failures = 0;
+                intervalMillis = Math.min(baseMillis * MAX_STRETCH, (long) (intervalMillis * STRETCH_FACTOR));
+                return jitter(intervalMillis);
+            case FAILED:
+            default:
+                failures++;
+                // Starts at the current interval, so a failing host is never asked sooner than a working one
+                long backoff = Math.min(intervalMillis << Math.min(failures - 1, MAX_BACKOFF_SHIFT), baseMillis << MAX_BACKOFF_SHIFT);
+                // Jittered upwards only, by up to half, so retries from many clients spread out
+                return backoff + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+        }
+    }
+
+    private static long jitter(long millis) {
+        double factor = 1.0 + (ThreadLocalRandom.current().nextDouble() * 2.0 - 1.0) * JITTER;
+        return (long) (millis * factor);
+    }
+}
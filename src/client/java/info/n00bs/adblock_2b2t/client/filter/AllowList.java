@@ -0,0 +1,105 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+import java.util.List;
+
+/**
+ * Messages that are never filtered, checked before any pattern evaluation.
+ * <p>
+ * Entries in {@code allow.txt} are {@code sender:<name>}, {@code message:<exact message>}
+ * or {@code prefix:<message start>}, all case-insensitive. Every entry is stored as a
+ * precomputed hash in a primitive set, so a check is a few hash lookups and allocates nothing.
+ */
+public final class AllowList {
+    public static final AllowList EMPTY = new AllowList();
+
+    public static final String SENDER = "sender";
+    public static final String MESSAGE = "message";
+    public static final String PREFIX = "prefix";
+
+    private final LongHashSet senders = new LongHashSet(16);
+    private final LongHashSet messages = new LongHashSet(16);
+    private final LongHashSet prefixes = new LongHashSet(16);
+    private boolean[] prefixLengths = new boolean[0]; // Which prefix lengths have entries
+    private int entries;
+
+    private AllowList() {
+    }
+
+    /**
+     * Parses the lines of an allow list file. Empty lines, comments and unknown entries are skipped.
+     * @param lines The lines
+     * @return The allow list
+     */
+    public static AllowList parse(List<String> lines) {
+        AllowList list = new AllowList();
+        for (String line : lines) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue; // Skip empty lines and comments
+            }
+
+            int colon = line.indexOf(':');
+            String value = colon > 0 ? line.substring(colon + 1) : "";
+            if (value.isEmpty()) {
+                System.err.println("Skipping invalid allow list entry \"" + line + "\"");
+                continue;
+            }
+
+            switch (line.substring(0, colon).trim().toLowerCase()) {
+                case SENDER -> list.senders.add(TextHash.hash(value.trim()));
+                case MESSAGE -> list.messages.add(TextHash.hash(value));
+                case PREFIX -> list.addPrefix(value);
+                default -> {
+                    System.err.println("Skipping invalid allow list entry \"" + line + "\"");
+                    continue;
+                }
+            }
+            list.entries++;
+        }
+        return list;
+    }
+
+    private void addPrefix(String prefix) {
+        prefixes.add(TextHash.hash(prefix));
+        if (prefix.length() >= prefixLengths.length) {
+            boolean[] grown = new boolean[prefix.length() + 1];
+            System.arraycopy(prefixLengths, 0, grown, 0, prefixLengths.length);
+            prefixLengths = grown;
+        }
+        prefixLengths[prefix.length()] = true;
+    }
+
+    /**
+     * Checks if a message is allowed.
+     * @param message The message
+     * @return true if the message must not be filtered
+     */
+    public boolean isAllowed(String message) {
+        if (entries == 0) {
+            return false;
+        }
+
+        if (!senders.isEmpty()) {
+            long sender = Senders.findSender(message);
+            if (sender >= 0 && senders.contains(Senders.hashSender(message, sender))) {
+                return true;
+            }
+        }
+
+        // One pass hashes every prefix; only lengths that have entries are looked up
+        long hash = TextHash.EMPTY;
+        int length = message.length();
+        int prefixLimit = prefixes.isEmpty() ? 0 : Math.min(length, prefixLengths.length - 1);
+        int limit = messages.isEmpty() ? prefixLimit : length;
+        for (int i = 0; i < limit; i++) {
+            hash = TextHash.update(hash, message.charAt(i));
+            if (i < prefixLimit && prefixLengths[i + 1] && prefixes.contains(hash)) {
+                return true;
+            }
+        }
+        return limit == length && messages.contains(hash);
+    }
+
+    public int size() {
+        return entries;
+    }
+}
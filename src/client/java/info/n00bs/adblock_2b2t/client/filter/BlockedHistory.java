@@ -0,0 +1,154 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size ring buffer of the last blocked messages, for auditing false positives
+ * without debug mode.
+ * <p>
+ * Entries are stored column-wise in preallocated arrays and message text is copied into a
+ * shared char buffer, so recording allocates nothing and takes no lock. Writers claim a slot
+ * with one atomic increment; each slot carries the sequence number of its entry as a seqlock,
+ * so readers skip entries that are being overwritten instead of returning a mix of two.
+ */
+public final class BlockedHistory {
+    public static final int CAPACITY = 1024; // Power of two
+    public static final int MAX_MESSAGE_LENGTH = 256; // Longer messages are truncated
+
+    private static final long WRITING = -1;
+
+    private final AtomicLong nextSequence = new AtomicLong();
+    private final AtomicLongArray sequences = new AtomicLongArray(CAPACITY); // Sequence of the entry in a slot
+    private final long[] times = new long[CAPACITY];
+    private final String[] categories = new String[CAPACITY];
+    private final int[] ruleIndexes = new int[CAPACITY];
+    private final String[] ruleSources = new String[CAPACITY]; // References to the rule's own string, not copies
+    private final MessageKind[] kinds = new MessageKind[CAPACITY];
+    private final int[] lengths = new int[CAPACITY]; // Untruncated message length
+    private final char[] messages = new char[CAPACITY * MAX_MESSAGE_LENGTH];
+
+    public BlockedHistory() {
+        for (int slot = 0; slot < CAPACITY; slot++) {
+            sequences.set(slot, WRITING); // Empty slots never validate
+        }
+    }
+
+    /**
+     * Records a blocked message. Safe to call from any thread.
+     * @param rule The rule that blocked the message
+     * @param kind The kind of the message, may be null
+     * @param message The message
+     */
+    public void record(FilterRule rule, MessageKind kind, String message) {
+        long sequence = nextSequence.getAndIncrement();
+        int slot = (int) (sequence & (CAPACITY - 1));
+
+        sequences.set(slot, WRITING);
+        VarHandle.releaseFence(); // The marker must be visible before any field changes
+        times[slot] = System.currentTimeMillis();
+        categories[slot] = rule.getCategory();
+        ruleIndexes[slot] = rule.getIndex();
+        ruleSources[slot] = rule.getSource();
+        kinds[slot] = kind;
+        int length = Math.min(message.length(), MAX_MESSAGE_LENGTH);
+        message.getChars(0, length, messages, slot * MAX_MESSAGE_LENGTH);
+        lengths[slot] = message.length();
+        sequences.set(slot, sequence); // Publishes the fields
+    }
+
+    /**
+     * Gets the number of messages recorded since startup, including those already overwritten.
+     * @return The total count
+     */
+    public long getTotalRecorded() {
+        return nextSequence.get();
+    }
+
+    /**
+     * Copies the entries still in the buffer.
+     * @param offset The number of newest entries to skip
+     * @param limit The maximum number of entries to return
+     * @return The entries, newest first
+     */
+    public List<Entry> getEntries(int offset, int limit) {
+        List<Entry> entries = new ArrayList<>(Math.min(limit, CAPACITY));
+        long newest = nextSequence.get() - 1;
+        long oldest = Math.max(0, newest - CAPACITY + 1);
+        for (long sequence = newest - offset; sequence >= oldest && entries.size() < limit; sequence--) {
+            Entry entry = read(sequence);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Reads one entry, or returns null if it is being written or was overwritten meanwhile.
+     */
+    private Entry read(long sequence) {
+        int slot = (int) (sequence & (CAPACITY - 1));
+        if (sequences.get(slot) != sequence) {
+            return null;
+        }
+        long time = times[slot];
+        String category = categories[slot];
+        int ruleIndex = ruleIndexes[slot];
+        String ruleSource = ruleSources[slot];
+        MessageKind kind = kinds[slot];
+        int length = lengths[slot];
+        String message = new String(messages, slot * MAX_MESSAGE_LENGTH, Math.min(length, MAX_MESSAGE_LENGTH));
+        VarHandle.acquireFence(); // The copies above must be done before validating
+        if (sequences.get(slot) != sequence) {
+            return null;
+        }
+        return new Entry(time, category, ruleIndex, ruleSource, kind, message, length > MAX_MESSAGE_LENGTH);
+    }
+
+    /**
+     * Writes the entries to a file, oldest first, one tab separated line each.
+     * @param path The file to write
+     * @return The number of entries written
+     * @throws IOException If the file can't be written
+     */
+    public int export(Path path) throws IOException {
+        List<Entry> entries = getEntries(0, CAPACITY);
+        try (BufferedWriter writer = Files.newBufferedWriter(path)) {
+            writer.write("# time\tlist\trule index\trule\tkind\tmessage\n");
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                Entry entry = entries.get(i);
+                writer.write(Instant.ofEpochMilli(entry.time()) + "\t" + entry.category() + "\t" + entry.ruleIndex()
+                        + "\t" + escape(entry.ruleSource()) + "\t" + (entry.kind() != null ? entry.kind().getKeyword() : "")
+                        + "\t" + escape(entry.message()) + (entry.truncated() ? "..." : "") + "\n");
+            }
+        }
+        return entries.size();
+    }
+
+    private static String escape(String text) {
+        return text.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    /**
+     * A blocked message.
+     * @param time When it was blocked, in epoch milliseconds
+     * @param category The list or stage that blocked it
+     * @param ruleIndex The position of the rule in its list, or -1 for stages without rules
+     * @param ruleSource The rule line
+     * @param kind The kind of the message, may be null
+     * @param message The message, truncated to {@link #MAX_MESSAGE_LENGTH} characters
+     * @param truncated Whether the message was longer
+     */
+    public record Entry(long time, String category, int ruleIndex, String ruleSource, MessageKind kind,
+                        String message, boolean truncated) {
+    }
+}
@@ -0,0 +1,188 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Static file layout for incremental remote filter list updates.
+ * <p>
+ * Next to a list such as {@code filter.txt} the host publishes:
+ * <ul>
+ *   <li>{@code filter.version} - one line {@code <version> <sha256>} describing the current list</li>
+ *   <li>{@code filter.<from>-<to>.diff} - {@code +line} / {@code -line} entries turning version
+ *   {@code from} into {@code to}; removals drop the first equal line, additions are appended</li>
+ * </ul>
+ * The hash is SHA-256 over every list line followed by {@code \n}, so a client can verify
+ * the result of applying a diff and fall back to a full download on mismatch.
+ */
+public final class DeltaUpdate {
+    private static final Pattern VERSION_TOKEN = Pattern.compile("[A-Za-z0-9._-]{1,64}");
+    private static final Pattern SHA256_HEX = Pattern.compile("[0-9a-fA-F]{64}");
+
+    private DeltaUpdate() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * A published list version.
+     * @param version The version token
+     * @param hash The lowercase hex SHA-256 of the list
+     */
+    public record Version(String version, String hash) {
+    }
+
+    /**
+     * Parses the content of a version file or the local version sidecar.
+     * @param content The file content
+     * @return The version, or null if the content is malformed
+     */
+    public static Version parseVersion(String content) {
+        String[] parts = content.trim().split("\\s+");
+        if (parts.length != 2 || !VERSION_TOKEN.matcher(parts[0]).matches() || !SHA256_HEX.matcher(parts[1]).matches()) {
+            return null;
+        }
+        return new Version(parts[0], parts[1].toLowerCase());
+    }
+
+    /**
+     * Formats a version for the local version sidecar.
+     * @param version The version
+     * @return The file content
+     */
+    public static String formatVersion(Version version) {
+        return version.version() + " " + version.hash() + "\n";
+    }
+
+    /**
+     * Gets the URL of the version file belonging to a list.
+     * @param listUrl The list URL, e.g. {@code https://host/filter.txt}
+     * @return The version file URL, e.g. {@code https://host/filter.version}
+     */
+    public static String versionUrl(String listUrl) {
+        return baseUrl(listUrl) + ".version";
+    }
+
+    /**
+     * Gets the URL of the diff between two versions of a list.
+     * @param listUrl The list URL
+     * @param from The version the client has
+     * @param to The version to update to
+     * @return The diff URL, e.g. {@code https://host/filter.3-4.diff}
+     */
+    public static String diffUrl(String listUrl, String from, String to) {
+        return baseUrl(listUrl) + "." + from + "-" + to + ".diff";
+    }
+
+    private static String baseUrl(String listUrl) {
+        int query = listUrl.indexOf('?');
+        String path = query >= 0 ? listUrl.substring(0, query) : listUrl;
+        // Only the last path segment can carry an extension, never the host
+        int scheme = path.indexOf("://");
+        int pathStart = path.indexOf('/', scheme >= 0 ? scheme + 3 : 0);
+        if (pathStart < 0) {
+            return path + "/"; // No path, the files sit at the root of the same host
+        }
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        return dot > slash ? path.substring(0, dot) : path;
+    }
+
+    /**
+     * The changes listed by a diff file.
+     * @param removed The removed lines, each dropping the first equal line
+     * @param added The lines appended to the list
+     */
+    public record Diff(List<String> removed, List<String> added) {
+    }
+
+    /**
+     * Parses the content of a diff file.
+     * @param diff The diff lines
+     * @return The changes
+     */
+    public static Diff parseDiff(List<String> diff) {
+        List<String> removed = new ArrayList<>();
+        List<String> added = new ArrayList<>();
+        for (String entry : diff) {
+            if (entry.startsWith("-")) {
+                removed.add(entry.substring(1));
+            } else if (entry.startsWith("+")) {
+                added.add(entry.substring(1));
+            }
+            // Anything else (blank lines, comments) is ignored
+        }
+        return new Diff(removed, added);
+    }
+
+    /**
+     * Applies a diff to a list.
+     * @param lines The current list lines
+     * @param diff The diff lines
+     * @return The updated lines, or null if the diff removes a line that isn't present
+     */
+    public static List<String> applyDiff(List<String> lines, List<String> diff) {
+        return applyDiff(lines, parseDiff(diff));
+    }
+
+    /**
+     * Applies parsed changes to a list.
+     * @param lines The current list lines
+     * @param diff The changes
+     * @return The updated lines, or null if the diff removes a line that isn't present
+     */
+    public static List<String> applyDiff(List<String> lines, Diff diff) {
+        // Count removals per line, then drop the first occurrences in one pass
+        Map<String, Integer> removals = new HashMap<>();
+        for (String line : diff.removed()) {
+            removals.merge(line, 1, Integer::sum);
+        }
+
+        List<String> result = new ArrayList<>(lines.size() + diff.added().size());
+        for (String line : lines) {
+            Integer pending = removals.get(line);
+            if (pending != null) {
+                if (pending == 1) {
+                    removals.remove(line);
+                } else {
+                    removals.put(line, pending - 1);
+                }
+            } else {
+                result.add(line);
+            }
+        }
+        if (!removals.isEmpty()) {
+            return null; // Diff doesn't belong to this list
+        }
+
+        result.addAll(diff.added());
+        return result;
+    }
+
+    /**
+     * Hashes a list the way the version file does.
+     * @param lines The list lines
+     * @return The lowercase hex SHA-256
+     */
+    public static String hash(List<String> lines) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String line : lines) {
+                digest.update(line.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The URL-like and domain-like tokens of a message, extracted once and checked against
+ * the {@link DomainTrie} of every rule list.
+ * <p>
+ * Obfuscated separators are read as dots, so {@code site dot com}, {@code site (.) gg},
+ * {@code site[.]gg} and {@code site . gg} all yield a host token. The targets of clickable
+ * links are scanned along with the visible text.
+ */
+public final class DomainTokens {
+    public static final DomainTokens NONE = new DomainTokens("", new long[0], 0);
+
+    private static final String[] BRACKETED_DOTS = {"(.)", "[.]", "{.}", "(dot)", "[dot]", "{dot}"};
+    private static final String SPELLED_DOT = "dot";
+
+    private final String text;
+    private final long[] ranges; // start << 32 | end, like Senders.findSender
+    private final int count;
+
+    private DomainTokens(String text, long[] ranges, int count) {
+        this.text = text;
+        this.ranges = ranges;
+        this.count = count;
+    }
+
+    /**
+     * Extracts the host tokens of a message.
+     * @param message The plain string of the message
+     * @param links The targets of clickable links in the message, may be empty
+     * @return The tokens
+     */
+    public static DomainTokens extract(String message, List<String> links) {
+        String plain = deobfuscate(message);
+        String text = message;
+        if (plain != message || !links.isEmpty()) {
+            // Joining labels can also hide a real domain, as in "shop.gg . best", so both forms are scanned
+            StringBuilder builder = new StringBuilder(message);
+            if (plain != message) {
+                builder.append(' ').append(plain);
+            }
+            for (String link : links) {
+                builder.append(' ').append(link);
+            }
+            text = builder.toString();
+        }
+
+        long[] ranges = new long[8];
+        int count = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            if (!RuleMatcher.isHostChar(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < length && RuleMatcher.isHostChar(text.charAt(i))) {
+                i++;
+            }
+
+            // A domain may end at the end of the run or before a dot that isn't followed
+            // by another label, as in "site.gg." or "site.gg.."
+            for (int end = start + 1; end <= i; end++) {
+                if (end == i || text.charAt(end) == '.' && (end + 1 == i || text.charAt(end + 1) == '.')) {
+                    if (count == ranges.length) {
+                        ranges = Arrays.copyOf(ranges, count * 2);
+                    }
+                    ranges[count++] = ((long) start << 32) | end;
+                }
+            }
+        }
+        return new DomainTokens(text, ranges, count);
+    }
+
+    /**
+     * Finds a token whose host is a domain of the trie or one of its subdomains.
+     * @param domains The domain trie of a rule list
+     * @param selector Decides whether the rules of a domain that was found apply
+     * @return The id of the matching rule, or -1
+     */
+    int find(DomainTrie domains, RuleSelector selector) {
+        for (int i = 0; i < count; i++) {
+            int rule = domains.findHost(text, (int) (ranges[i] >>> 32), (int) ranges[i], selector);
+            if (rule >= 0) {
+                return rule;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the number of extracted tokens.
+     * @return The number of tokens
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Gets an extracted token.
+     * @param index The index of the token
+     * @return The token text
+     */
+    public String get(int index) {
+        return text.substring((int) (ranges[index] >>> 32), (int) ranges[index]);
+    }
+
+    /**
+     * Replaces obfuscated dots between two labels with a plain dot.
+     * Returns the message itself when it contains none, which is the common case.
+     * @param message The message
+     * @return The message with plain dots
+     */
+    static String deobfuscate(String message) {
+        StringBuilder builder = null;
+        int length = message.length();
+        int i = 0;
+        while (i < length) {
+            int next = i > 0 && isLabelChar(message.charAt(i - 1)) ? skipObfuscatedDot(message, i) : -1;
+            if (next > 0) {
+                if (builder == null) {
+                    builder = new StringBuilder(length).append(message, 0, i);
+                }
+                builder.append('.');
+                i = next;
+            } else {
+                if (builder != null) {
+                    builder.append(message.charAt(i));
+                }
+                i++;
+            }
+        }
+        return builder != null ? builder.toString() : message;
+    }
+
+    /**
+     * Checks for an obfuscated dot at a position right after a label.
+     * @return The start of the next label, or -1 if there is no obfuscated dot
+     */
+    private static int skipObfuscatedDot(String message, int position) {
+        char first = message.charAt(position);
+        if (first != ' ' && first != '(' && first != '[' && first != '{' && first != '\u3002' && first != '\uFF0E') {
+            return -1; // Fast path for ordinary characters
+        }
+
+        int length = message.length();
+        int i = skipSpaces(message, position);
+        boolean spacedBefore = i > position;
+        int end = -1;
+        boolean needsSpaceAfter = false;
+
+        for (String dot : BRACKETED_DOTS) {
+            if (message.regionMatches(true, i, dot, 0, dot.length())) {
+                end = i + dot.length();
+                break;
+            }
+        }
+        if (end < 0 && i < length && (message.charAt(i) == '\u3002' || message.charAt(i) == '\uFF0E')) {
+            end = i + 1; // Ideographic and fullwidth full stops
+        } else if (end < 0 && spacedBefore && i < length && message.charAt(i) == '.') {
+            end = i + 1;
+        } else if (end < 0 && spacedBefore && message.regionMatches(true, i, SPELLED_DOT, 0, SPELLED_DOT.length())) {
+            end = i + SPELLED_DOT.length();
+            needsSpaceAfter = true;
+        }
+        if (end < 0) {
+            return -1;
+        }
+
+        int next = skipSpaces(message, end);
+        if (needsSpaceAfter && next == end) {
+            return -1; // "dotted", not a dot
+        }
+        return next < length && isLabelChar(message.charAt(next)) ? next : -1;
+    }
+
+    private static int skipSpaces(String message, int i) {
+        while (i < message.length() && message.charAt(i) == ' ') {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isLabelChar(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9';
+    }
+}
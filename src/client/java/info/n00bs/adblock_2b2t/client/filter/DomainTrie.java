@@ -0,0 +1,148 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Trie of domains keyed by reversed labels for {@link RuleType#DOMAIN} rules,
+ * so {@code gg -> 2b2t -> shop} matches {@code shop.2b2t.gg} and every subdomain of it.
+ * <p>
+ * Edges are stored in one primitive map keyed by the parent node and the label hash,
+ * so walking the trie never creates label substrings.
+ */
+public final class DomainTrie {
+    private static final long NODE_MIX = 0x9E3779B97F4A7C15L;
+
+    private final LongIntHashMap edges;
+    private final int[] ruleAt; // Rule id of the domain ending at a node, or -1
+
+    private DomainTrie(LongIntHashMap edges, int[] ruleAt) {
+        this.edges = edges;
+        this.ruleAt = ruleAt;
+    }
+
+    /**
+     * Checks a host name against the trie.
+     * The host is given as a range of a message and may carry trailing dots.
+     * @param text The text containing the host
+     * @param start The first character of the host, inclusive
+     * @param end The last character of the host, exclusive
+     * @param selector Decides whether the rules of a domain that was found apply
+     * @return The id of a rule whose domain is the host or one of its parents, or -1
+     */
+    int findHost(String text, int start, int end, RuleSelector selector) {
+        int node = 0;
+        int labelEnd = end;
+        while (labelEnd > start) {
+            int labelStart = labelEnd;
+            while (labelStart > start && text.charAt(labelStart - 1) != '.') {
+                labelStart--;
+            }
+            if (labelStart == labelEnd) {
+                return -1; // Empty label
+            }
+
+            node = edges.get(edgeKey(node, TextHash.hash(text, labelStart, labelEnd)));
+            if (node == LongIntHashMap.MISSING) {
+                return -1;
+            }
+            if (ruleAt[node] >= 0) {
+                int rule = selector.select(ruleAt[node], text);
+                if (rule >= 0) {
+                    return rule;
+                }
+            }
+            labelEnd = labelStart - 1; // Skip the dot
+        }
+        return -1;
+    }
+
+    public boolean isEmpty() {
+        return edges.size() == 0;
+    }
+
+    public int nodeCount() {
+        return ruleAt.length;
+    }
+
+    /**
+     * Estimates the heap used by the trie.
+     * @return The estimated bytes
+     */
+    public long memoryUsage() {
+        return edges.memoryUsage() + ruleAt.length * 4L;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        edges.write(out);
+        RuleSnapshot.writeInts(out, ruleAt);
+    }
+
+    static DomainTrie read(ByteBuffer in) {
+        return new DomainTrie(LongIntHashMap.read(in), RuleSnapshot.readInts(in));
+    }
+
+    private static long edgeKey(int parent, long labelHash) {
+        return labelHash ^ (parent * NODE_MIX);
+    }
+
+    /**
+     * Checks that a domain consists of non-empty labels of letters, digits and hyphens.
+     * @param domain The domain
+     * @return true if the domain can be stored in the trie
+     */
+    public static boolean isValidDomain(String domain) {
+        if (domain.isEmpty() || domain.startsWith(".") || domain.endsWith(".") || domain.contains("..")) {
+            return false;
+        }
+        for (int i = 0; i < domain.length(); i++) {
+            char c = domain.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '.')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Collects domains and freezes them into a trie.
+     */
+    public static final class Builder {
+        private final LongIntHashMap edges = new LongIntHashMap(64);
+        private int[] ruleAt = {-1};
+        private int nodes = 1;
+
+        /**
+         * Adds a domain. If the same domain is added twice, the first rule id is kept.
+         * @param domain A domain accepted by {@link #isValidDomain(String)}
+         * @param rule The rule id reported for the domain and its subdomains
+         * @return The first rule id of the domain, which is {@code rule} unless it was added before
+         */
+        public int add(String domain, int rule) {
+            int node = 0;
+            int labelEnd = domain.length();
+            while (labelEnd > 0) {
+                int labelStart = domain.lastIndexOf('.', labelEnd - 1) + 1;
+                node = edges.putIfAbsent(edgeKey(node, TextHash.hash(domain, labelStart, labelEnd)), nodes);
+                if (node == nodes) {
+                    if (nodes == ruleAt.length) {
+                        ruleAt = Arrays.copyOf(ruleAt, nodes * 2);
+                        Arrays.fill(ruleAt, nodes, ruleAt.length, -1);
+                    }
+                    nodes++;
+                }
+                labelEnd = labelStart - 1;
+            }
+            if (ruleAt[node] < 0) {
+                ruleAt[node] = rule;
+            }
+            return ruleAt[node];
+        }
+
+        public DomainTrie build() {
+            return new DomainTrie(edges, Arrays.copyOf(ruleAt, nodes));
+        }
+    }
+}
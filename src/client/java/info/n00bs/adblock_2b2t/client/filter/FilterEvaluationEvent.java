@@ -0,0 +1,38 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder event emitted for a single chat message evaluation.
+ * Disabled by default; only evaluations slower than the threshold are recorded.
+ */
+@Name("info.n00bs.adblock_2b2t.FilterEvaluation")
+@Label("AdBlock Filter Evaluation")
+@Category({"AdBlock", "Filter"})
+@Description("Evaluation of a chat message against the loaded filter rules")
+@Enabled(false)
+@Threshold("1 ms")
+@StackTrace(false)
+public final class FilterEvaluationEvent extends Event {
+
+    @Label("Rule List")
+    @Description("List of the matching rule (CUSTOM or REMOTE), or null if nothing matched")
+    String ruleList;
+
+    @Label("Rule Index")
+    @Description("Index of the matching rule within its list, or -1 if nothing matched")
+    int ruleIndex = -1;
+
+    @Label("Message Length")
+    int messageLength;
+
+    @Label("Blocked")
+    boolean blocked;
+}
@@ -0,0 +1,44 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Java Flight Recorder event emitted once per filter list refresh.
+ * Disabled by default; covers the fetch, compile and swap phases.
+ */
+@Name("info.n00bs.adblock_2b2t.FilterRefresh")
+@Label("AdBlock Filter Refresh")
+@Category({"AdBlock", "Filter"})
+@Description("Loading, compiling and swapping in a filter list")
+@Enabled(false)
+@StackTrace(false)
+public final class FilterRefreshEvent extends Event {
+
+    @Label("Rule List")
+    String ruleList;
+
+    @Label("Rule Count")
+    int ruleCount;
+
+    @Label("Success")
+    boolean success;
+
+    @Label("Fetch Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long fetchDuration;
+
+    @Label("Compile Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long compileDuration;
+
+    @Label("Swap Duration")
+    @Timespan(Timespan.NANOSECONDS)
+    long swapDuration;
+}
@@ -0,0 +1,246 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A single parsed filter rule.
+ * <p>
+ * A rule line may start with an option prefix such as {@code @chat:}, {@code @word:} or
+ * {@code @whisper,system,domain:}. Scope options limit the rule to certain message kinds,
+ * a type option picks how the expression is matched (see {@link RuleType}). Lines without a
+ * prefix, or whose prefix contains unknown options, are regular expressions applying to every
+ * message; those without regex metacharacters are promoted to {@link RuleType#EXACT}.
+ * <p>
+ * Every rule has an equivalent regular expression, see {@link #toPattern()}, but only
+ * {@link RuleType#REGEX} rules are ever compiled, and only once they are needed.
+ */
+public final class FilterRule {
+    private static final String REGEX_METACHARACTERS = "[](){}.*+?^$|";
+
+    // Character classes matching the token boundaries of the word and domain executors
+    private static final String WORD_CHARS = "[A-Za-z0-9_]";
+    private static final String HOST_CHARS = "[A-Za-z0-9-]";
+
+    private final String category;
+    private final int index;
+    private final String source;
+    private final int scopeMask;
+    private final RuleType type;
+    private final String expression;
+    private final Pattern pattern;
+
+    private FilterRule(String category, int index, String source, int scopeMask, RuleType type, String expression, Pattern pattern) {
+        this.category = category;
+        this.index = index;
+        this.source = source;
+        this.scopeMask = scopeMask;
+        this.type = type;
+        this.expression = expression;
+        this.pattern = pattern;
+    }
+
+    /**
+     * Parses a rule line. Regular expressions are not compiled yet.
+     * @param category The list the rule belongs to ("CUSTOM" or "REMOTE")
+     * @param index The position of the rule within its list
+     * @param line The rule line, without comments or blank lines
+     * @return The parsed rule
+     * @throws PatternSyntaxException If a non-regex rule is empty
+     */
+    public static FilterRule parse(String category, int index, String line) {
+        int scopeMask = MessageKind.ALL;
+        RuleType type = null;
+        String expression = line;
+
+        int end = line.indexOf(':');
+        if (line.startsWith("@") && end > 1) {
+            int mask = 0;
+            RuleType declared = null;
+            boolean valid = true;
+            for (String option : line.substring(1, end).split(",")) {
+                MessageKind kind = MessageKind.fromKeyword(option.trim());
+                RuleType optionType = RuleType.fromKeyword(option.trim());
+                if (kind != null) {
+                    mask |= kind.getBit();
+                } else if (optionType != null && declared == null) {
+                    declared = optionType;
+                } else {
+                    valid = false; // Not an option prefix, treat the whole line as the expression
+                    break;
+                }
+            }
+            if (valid) {
+                scopeMask = mask != 0 ? mask : MessageKind.ALL;
+                type = declared;
+                expression = line.substring(end + 1);
+            }
+        }
+
+        if (type == null) {
+            // Untyped lines are regexes, but plain text runs much faster as a phrase
+            String literal = unescapeLiteral(expression);
+            if (literal != null) {
+                type = RuleType.EXACT;
+                expression = literal;
+            } else {
+                type = RuleType.REGEX;
+            }
+        }
+
+        // Fall back to an equivalent regex when the specialized executor can't take the expression.
+        // An empty word stays a word rule so it is rejected below instead of matching everywhere.
+        if (type == RuleType.WORD && !expression.isEmpty() && !isWord(expression)) {
+            expression = wordRegex(expression);
+            type = RuleType.REGEX;
+        } else if (type == RuleType.DOMAIN) {
+            expression = normalizeDomain(expression);
+            if (!DomainTrie.isValidDomain(expression)) {
+                type = RuleType.EXACT;
+            }
+        }
+        if (type != RuleType.REGEX && expression.isEmpty()) {
+            throw new PatternSyntaxException("Empty expression", line, line.length());
+        }
+
+        return new FilterRule(category, index, line, scopeMask, type, expression, null);
+    }
+
+    /**
+     * Creates a rule standing for a verdict that doesn't come from a rule line, such as the spam classifier.
+     * It is never part of a {@link RuleSet} and can't be matched directly.
+     * @param category The stage that produced the verdict
+     * @param description The text shown in place of the expression
+     * @return The rule
+     */
+    public static FilterRule synthetic(String category, String description) {
+        return new FilterRule(category, -1, description, MessageKind.ALL, RuleType.REGEX, description, null);
+    }
+
+    /**
+     * Creates a copy of this rule carrying an already compiled pattern.
+     * @param pattern The compiled pattern of the regex
+     * @return The rule with the pattern
+     */
+    FilterRule withPattern(Pattern pattern) {
+        return new FilterRule(category, index, source, scopeMask, type, expression, pattern);
+    }
+
+    /**
+     * Builds the regular expression equivalent to this rule, whatever its type.
+     * The filter never needs it for non-regex rules; it exists for diagnostics.
+     * @return The equivalent case-insensitive pattern
+     */
+    public Pattern toPattern() {
+        if (pattern != null) {
+            return pattern;
+        }
+        String regex = switch (type) {
+            case EXACT -> Pattern.quote(expression);
+            case WORD -> wordRegex(expression);
+            case DOMAIN -> "(?<!" + HOST_CHARS + ")" + Pattern.quote(expression) + "(?!" + HOST_CHARS + "|\\." + HOST_CHARS + ")";
+            case REGEX -> expression;
+        };
+        return Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+    }
+
+    /**
+     * Checks if the rule applies to a message kind.
+     * @param kind The message kind
+     * @return true if the rule is scoped to the kind
+     */
+    public boolean appliesTo(MessageKind kind) {
+        return (scopeMask & kind.getBit()) != 0;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public RuleType getType() {
+        return type;
+    }
+
+    /**
+     * Gets the expression matched by the rule's executor: the phrase, word, domain or regex.
+     * @return The expression
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * Gets the compiled pattern of a regex rule, compiling it if needed.
+     * @return The pattern, or null for other rule types
+     * @throws PatternSyntaxException If the regex is not valid
+     */
+    public Pattern getPattern() {
+        return type == RuleType.REGEX ? toPattern() : null;
+    }
+
+    int getScopeMask() {
+        return scopeMask;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    /**
+     * Turns a regex without metacharacters into the literal text it matches.
+     * Escaped punctuation such as {@code \.} is allowed; escapes like {@code \s} are not.
+     * @param regex The regex
+     * @return The literal text, or null if the regex is more than a literal
+     */
+    static String unescapeLiteral(String regex) {
+        StringBuilder literal = new StringBuilder(regex.length());
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    return null;
+                }
+                literal.append(regex.charAt(++i));
+            } else if (REGEX_METACHARACTERS.indexOf(c) >= 0) {
+                return null;
+            } else {
+                literal.append(c);
+            }
+        }
+        return literal.toString();
+    }
+
+    private static boolean isWord(String text) {
+        if (text.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (!RuleMatcher.isWordChar(text.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String wordRegex(String word) {
+        return "(?<!" + WORD_CHARS + ")" + Pattern.quote(word) + "(?!" + WORD_CHARS + ")";
+    }
+
+    private static String normalizeDomain(String domain) {
+        String normalized = domain.trim().toLowerCase(Locale.ROOT);
+        if (normalized.startsWith("*.")) {
+            normalized = normalized.substring(2);
+        }
+        return normalized;
+    }
+}
@@ -0,0 +1,121 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive longs to non-negative ints.
+ * Lookups don't box or allocate, which keeps it usable on the chat hot path.
+ */
+public final class LongIntHashMap {
+    /** Returned by {@link #get(long)} for missing keys. */
+    public static final int MISSING = -1;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    /**
+     * Creates a map sized for the expected number of keys.
+     * @param expectedSize The expected number of keys
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, MISSING);
+        mask = capacity - 1;
+    }
+
+    /**
+     * Associates a value with a key unless the key is already present.
+     * @param key The key
+     * @param value The value, must not be negative
+     * @return The value now associated with the key
+     */
+    public int putIfAbsent(long key, int value) {
+        int slot = slot(key);
+        while (values[slot] != MISSING) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size * 2 > keys.length) {
+            grow();
+        }
+        return value;
+    }
+
+    /**
+     * Gets the value of a key.
+     * @param key The key
+     * @return The value, or {@link #MISSING}
+     */
+    public int get(long key) {
+        int slot = slot(key);
+        int value;
+        while ((value = values[slot]) != MISSING) {
+            if (keys[slot] == key) {
+                return value;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Estimates the heap used by the map's arrays.
+     * @return The estimated bytes
+     */
+    public long memoryUsage() {
+        return keys.length * 8L + values.length * 4L;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        RuleSnapshot.writeLongs(out, keys);
+        RuleSnapshot.writeInts(out, values);
+        out.writeInt(size);
+    }
+
+    static LongIntHashMap read(ByteBuffer in) {
+        LongIntHashMap map = new LongIntHashMap(0);
+        map.keys = RuleSnapshot.readLongs(in);
+        map.values = RuleSnapshot.readInts(in);
+        map.size = in.getInt();
+        map.mask = map.keys.length - 1;
+        if (map.values.length != map.keys.length || Integer.bitCount(map.keys.length) != 1) {
+            throw new IllegalArgumentException("Damaged hash map");
+        }
+        return map;
+    }
+
+    private int slot(long key) {
+        // Keys are hashes already, mixing the halves is enough to spread them
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        Arrays.fill(values, MISSING);
+        mask = keys.length - 1;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != MISSING) {
+                putIfAbsent(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+}
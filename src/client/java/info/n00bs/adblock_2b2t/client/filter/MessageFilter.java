@@ -9,19 +9,22 @@ import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jdk.jfr.FlightRecorder;
 
 /**
  * Handles filtering of chat messages based on patterns.
@@ -29,13 +32,63 @@ import java.util.stream.Collectors;
 public class MessageFilter {
     private static final MessageFilter INSTANCE = new MessageFilter();
 
-    private List<Pattern> remotePatterns = new ArrayList<>();
-    private List<Pattern> customPatterns = new ArrayList<>();
-    private boolean isInitialized = false;
+    // Compiled lists are swapped as a whole so readers never see a partially loaded list
+    private volatile RuleSet remoteRules = RuleSet.EMPTY;
+    private volatile RuleSet customRules = RuleSet.EMPTY;
+    private final AtomicInteger ruleSetVersion = new AtomicInteger(); // Bumped on every swap
+    private volatile AllowList allowList = AllowList.EMPTY;
+    private volatile boolean isInitialized = false; // Read by the network thread as well
+
+    // Statistical pre-stage, trained from rule verdicts and /adblock mark
+    private static final FilterRule CLASSIFIER_RULE = FilterRule.synthetic(FilterCategory.CLASSIFIER_TYPE, "spam classifier");
+    private static final int HAM_SAMPLE_RATE = 8; // Train on every 8th unblocked message as ham
+    private final SpamClassifier classifier = new SpamClassifier();
+
+    // Senders whose messages keep matching rules are blocked before any rule runs
+    private static final FilterRule REPUTATION_RULE = FilterRule.synthetic(FilterCategory.SENDER_TYPE, "sender reputation");
+    private final SenderReputation reputation = new SenderReputation();
+
+    // Last blocked messages, for /adblock history
+    private final BlockedHistory history = new BlockedHistory();
+    private final AtomicInteger unblockedMessages = new AtomicInteger(); // Counted from the network and client threads
+
+    // Last successfully fetched remote list with its version and HTTP validators,
+    // used to detect unchanged lists and as the base for delta updates. The lines are arena backed.
+    private List<String> remoteLines = Collections.emptyList();
+    private DeltaUpdate.Version remoteVersion;
+    private String remoteListUrl;
+    private String remoteETag;
+    private String remoteLastModified;
+    private boolean deltaSupported = true;
+
+    // Serializes remote refreshes and guards the state above and the shared cache. Refreshes hold it
+    // across network I/O, so the client thread never takes it.
+    private final ReentrantLock remoteRefreshLock = new ReentrantLock();
+
+    // Remote list cache shared with the other clients on this machine, null when not configured
+    private static final long SHARED_CACHE_POLL_SECONDS = 15;
+    private volatile SharedRuleCache sharedCache; // Read by /adblock status without the refresh lock
+    private String sharedCacheKey = "";
+    private ScheduledFuture<?> sharedCacheWatcher;
+    private final ScheduledExecutorService sharedCacheExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "AdBlock-SharedCache");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     // Scheduler for auto-refresh
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-    private ScheduledFuture<?> autoRefreshTask;
+    private final AdaptiveRefreshScheduler autoRefresh = new AdaptiveRefreshScheduler(() -> {
+        System.out.println("Auto-refreshing remote filters...");
+        return loadRemoteFilters();
+    });
+
+    static {
+        // Make the (disabled by default) JFR events visible to recordings before the first commit.
+        // Done while this class initializes so no thread can use an event class during registration,
+        // which deadlocks inside JFR.
+        FlightRecorder.register(FilterEvaluationEvent.class);
+        FlightRecorder.register(FilterRefreshEvent.class);
+    }
 
     private MessageFilter() {
         // Private constructor for singleton
@@ -52,17 +105,25 @@ public class MessageFilter {
     /**
      * Initializes the filter by loading patterns from files and/or remote source.
      * Also starts the auto-refresh scheduler if enabled.
+     * @return A CompletableFuture that completes when the first refresh is done
      */
-    public void initialize() {
-        refreshFilters();
+    public synchronized CompletableFuture<Void> initialize() {
+        classifier.load(getClassifierModelPath());
+        if (FilterConfig.getInstance().isReputationPersisted()) {
+            reputation.load(getReputationPath());
+        }
+        CompletableFuture<Void> refresh = refreshFilters();
         isInitialized = true;
 
         // Start auto-refresh if enabled
         startAutoRefreshIfEnabled();
+        return refresh;
     }
 
     /**
      * Starts the auto-refresh scheduler if enabled in the configuration.
+     * The configured delay is the base interval; it stretches while the remote list
+     * stays unchanged and backs off when fetches fail.
      */
     public void startAutoRefreshIfEnabled() {
         FilterConfig config = FilterConfig.getInstance();
@@ -73,16 +134,8 @@ public class MessageFilter {
         // Start new task if enabled
         if (config.isAutoRefreshEnabled() && config.isUseRemoteFilters()) {
             int delayMinutes = config.getAutoRefreshDelay();
-            autoRefreshTask = scheduler.scheduleAtFixedRate(
-                () -> {
-                    System.out.println("Auto-refreshing remote filters...");
-                    loadRemoteFilters().join(); // Wait for completion
-                },
-                delayMinutes, // Initial delay
-                delayMinutes, // Periodic delay
-                TimeUnit.MINUTES
-            );
-            System.out.println("Auto-refresh scheduled every " + delayMinutes + " minutes");
+            autoRefresh.start(delayMinutes);
+            System.out.println("Auto-refresh scheduled with a base delay of " + delayMinutes + " minutes");
         }
     }
 
@@ -90,34 +143,52 @@ public class MessageFilter {
      * Stops the auto-refresh scheduler.
      */
     public void stopAutoRefresh() {
-        if (autoRefreshTask != null) {
-            autoRefreshTask.cancel(false);
-            autoRefreshTask = null;
+        if (autoRefresh.stop()) {
             System.out.println("Auto-refresh stopped");
         }
     }
 
+    /**
+     * Gets the time until the next automatic refresh.
+     * @return The delay in milliseconds, or -1 if auto-refresh is not running
+     */
+    public long getMillisUntilNextAutoRefresh() {
+        return autoRefresh.getMillisUntilNextRun();
+    }
+
     /**
      * Refreshes the filter patterns from local files and/or remote source.
      * @return A CompletableFuture that completes when the refresh is done
      */
     public CompletableFuture<Void> refreshFilters() {
-
-        // Clear existing patterns
-        remotePatterns.clear();
-        customPatterns.clear();
-
         CompletableFuture<Void> future = CompletableFuture.completedFuture(null);
 
-        // Load custom filters if enabled
+        // The allow list is always active
+        loadAllowList();
+
+        // Load custom filters if enabled, otherwise drop them
         FilterConfig config = FilterConfig.getInstance();
         if (config.isUseCustomFilters()) {
             loadCustomFilters();
+        } else {
+            customRules = RuleSet.EMPTY;
         }
 
-        // Load remote filters if enabled
+        // Load remote filters if enabled, otherwise drop them.
+        // Existing remote patterns stay active until the new list has been fetched.
         if (config.isUseRemoteFilters()) {
-            future = future.thenCompose(v -> loadRemoteFilters());
+            future = future.thenCompose(v -> loadRemoteFilters()).thenApply(outcome -> null);
+        } else {
+            // Dropped on a pool thread, since a fetch in progress holds the refresh lock
+            future = future.thenRunAsync(() -> {
+                remoteRefreshLock.lock();
+                try {
+                    clearRemoteFilters();
+                    closeSharedCache(); // Lets another client lead
+                } finally {
+                    remoteRefreshLock.unlock();
+                }
+            });
         }
 
         // Update auto-refresh based on current config
@@ -129,6 +200,87 @@ public class MessageFilter {
         return future;
     }
 
+    /**
+     * Loads the allow list from local file.
+     */
+    private void loadAllowList() {
+        Path filePath = Paths.get(FilterConfig.getInstance().getFiltersDirectory(), FilterCategory.ALLOW_LIST_FILENAME);
+        try {
+            allowList = AllowList.parse(Files.exists(filePath) ? Files.readAllLines(filePath) : Collections.emptyList());
+        } catch (IOException e) {
+            System.err.println("Failed to load allow list file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Adds an entry to the allow list file and reloads the allow list.
+     * @param type The entry type (sender, message or prefix)
+     * @param value The name, message or prefix to allow
+     * @return true if the entry was added, false if it already existed or the file couldn't be written
+     */
+    public boolean addAllowEntry(String type, String value) {
+        Path filePath = Paths.get(FilterConfig.getInstance().getFiltersDirectory(), FilterCategory.ALLOW_LIST_FILENAME);
+        String entry = type + ":" + value;
+        try {
+            List<String> lines = Files.exists(filePath) ? new ArrayList<>(Files.readAllLines(filePath)) : new ArrayList<>();
+            if (lines.contains(entry)) {
+                return false;
+            }
+            lines.add(entry);
+            Files.write(filePath, lines);
+        } catch (IOException e) {
+            System.err.println("Failed to update allow list file: " + e.getMessage());
+            return false;
+        }
+        loadAllowList();
+        return true;
+    }
+
+    /**
+     * Removes an entry from the allow list file and reloads the allow list.
+     * @param type The entry type (sender, message or prefix)
+     * @param value The name, message or prefix to remove
+     * @return true if the entry was removed, false if it didn't exist or the file couldn't be written
+     */
+    public boolean removeAllowEntry(String type, String value) {
+        Path filePath = Paths.get(FilterConfig.getInstance().getFiltersDirectory(), FilterCategory.ALLOW_LIST_FILENAME);
+        String entry = type + ":" + value;
+        try {
+            if (!Files.exists(filePath)) {
+                return false;
+            }
+            List<String> lines = new ArrayList<>(Files.readAllLines(filePath));
+            if (!lines.remove(entry)) {
+                return false;
+            }
+            Files.write(filePath, lines);
+        } catch (IOException e) {
+            System.err.println("Failed to update allow list file: " + e.getMessage());
+            return false;
+        }
+        loadAllowList();
+        return true;
+    }
+
+    /**
+     * Gets the entries of the allow list file.
+     * @return The entries, without comments and empty lines
+     */
+    public List<String> getAllowEntries() {
+        Path filePath = Paths.get(FilterConfig.getInstance().getFiltersDirectory(), FilterCategory.ALLOW_LIST_FILENAME);
+        try {
+            if (!Files.exists(filePath)) {
+                return Collections.emptyList();
+            }
+            return Files.readAllLines(filePath).stream()
+                    .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+                    .toList();
+        } catch (IOException e) {
+            System.err.println("Failed to load allow list file: " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
     /**
      * Loads custom filter patterns from local file.
      */
@@ -137,106 +289,507 @@ public class MessageFilter {
         String filtersDir = config.getFiltersDirectory();
 
         Path filePath = Paths.get(filtersDir, FilterCategory.CUSTOM_FILTERS_FILENAME);
+        FilterRefreshEvent event = new FilterRefreshEvent();
+        event.begin();
+        long start = System.nanoTime();
         try {
-            if (Files.exists(filePath)) {
-                List<String> lines = Files.readAllLines(filePath);
-                List<Pattern> patterns = compilePatterns(lines);
-                customPatterns.addAll(patterns);
-            }
+            List<String> lines = Files.exists(filePath) ? Files.readAllLines(filePath) : Collections.emptyList();
+            long fetched = System.nanoTime();
+            event.fetchDuration = fetched - start;
+
+            RuleSet rules = RuleSet.compile(FilterCategory.CUSTOM_FILTERS_TYPE, lines, customRules);
+            long compiled = System.nanoTime();
+            event.compileDuration = compiled - fetched;
+
+            customRules = rules;
+            ruleSetVersion.incrementAndGet();
+            event.swapDuration = System.nanoTime() - compiled;
+            event.ruleCount = rules.size();
+            event.success = true;
         } catch (IOException e) {
             System.err.println("Failed to load custom filter file: " + e.getMessage());
         }
+        event.ruleList = FilterCategory.CUSTOM_FILTERS_TYPE;
+        event.commit();
     }
 
     /**
      * Loads filter patterns from a remote source.
-     * @return A CompletableFuture that completes when the remote filters are loaded
+     * Unchanged lists are detected without recompiling, and changed lists are updated
+     * incrementally when the host publishes deltas.
+     * @return A CompletableFuture with the outcome, completed when the remote filters are loaded
      */
-    private CompletableFuture<Void> loadRemoteFilters() {
-        return CompletableFuture.runAsync(() -> {
-            FilterConfig config = FilterConfig.getInstance();
-            String remoteUrl = config.getRemoteUrl();
-
+    private CompletableFuture<RefreshOutcome> loadRemoteFilters() {
+        return CompletableFuture.supplyAsync(() -> {
+            // Held across the network I/O so a manual refresh and an auto-refresh never interleave.
+            // Readers of the filter only wait for the swap itself.
+            remoteRefreshLock.lock();
             try {
-                URL url = new URI(remoteUrl).toURL();
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                connection.setRequestMethod("GET");
-                connection.setConnectTimeout(5000);
-                connection.setReadTimeout(5000);
-
-                int responseCode = connection.getResponseCode();
-                if (responseCode == HttpURLConnection.HTTP_OK) {
-                    try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
-                        List<String> lines = new ArrayList<>();
-                        String line;
-
-                        while ((line = reader.readLine()) != null) {
-                            lines.add(line);
-                        }
-
-                        // Compile and add patterns
-                        List<Pattern> patterns = compilePatterns(lines);
-                        remotePatterns.addAll(patterns);
-
-                        // Save to local file for reference
-                        Path remoteFilePath = Paths.get(config.getFiltersDirectory(), FilterCategory.REMOTE_FILTERS_FILENAME);
-                        Files.write(remoteFilePath, lines);
-                    }
-                } else {
-                    System.err.println("Failed to fetch remote filters. Response code: " + responseCode);
-                }
-            } catch (IOException | URISyntaxException e) {
-                System.err.println("Failed to load remote filters: " + e.getMessage());
+                return fetchRemoteFilters();
+            } finally {
+                remoteRefreshLock.unlock();
             }
         });
     }
 
     /**
-     * Compiles a list of string patterns into regex Pattern objects.
-     * @param patterns The string patterns to compile
-     * @return A list of compiled Pattern objects
+     * Fetches, compiles and swaps in the remote filter list.
+     * Tries a delta update first when the host publishes one and falls back to a full download.
+     * Called with the refresh lock held.
+     * @return The outcome of the refresh
      */
-    private List<Pattern> compilePatterns(List<String> patterns) {
-        return patterns.stream()
-                .filter(p -> !p.isEmpty() && !p.startsWith("#")) // Skip empty lines and comments
-                .map(p -> Pattern.compile(p, Pattern.CASE_INSENSITIVE)) // Compile pattern, case insensitive
-                .collect(Collectors.toList());
+    private RefreshOutcome fetchRemoteFilters() {
+        FilterConfig config = FilterConfig.getInstance();
+        String remoteUrl = config.getRemoteUrl();
+        SharedRuleCache cache = openSharedCache(config, remoteUrl);
+
+        // State from a different URL doesn't apply
+        if (!remoteUrl.equals(remoteListUrl)) {
+            clearRemoteFilters();
+            remoteListUrl = remoteUrl;
+            deltaSupported = true;
+            if (cache == null) {
+                loadStoredRemoteFilters(config);
+            }
+        }
+
+        if (cache != null) {
+            // Another client fetches for the machine, or did so recently
+            long freshMillis = TimeUnit.MINUTES.toMillis(Math.max(1, config.getAutoRefreshDelay())) / 2;
+            if (!cache.tryLead() || cache.isFresh(freshMillis)) {
+                return loadSharedRules(cache);
+            }
+            if (remoteVersion == null) {
+                // Taking over from another client, continue from the list it stored
+                loadStoredRemoteFilters(config);
+            }
+        }
+
+        RefreshOutcome outcome = RefreshOutcome.FAILED;
+        FilterRefreshEvent event = new FilterRefreshEvent();
+        event.begin();
+        long start = System.nanoTime();
+        try {
+            DeltaUpdate.Version latest = null;
+            if (config.isDeltaUpdatesEnabled() && deltaSupported) {
+                latest = fetchLatestVersion(remoteUrl);
+                outcome = tryDeltaUpdate(config, remoteUrl, latest, event, start);
+            }
+            if (outcome == RefreshOutcome.FAILED) {
+                outcome = fullDownload(config, remoteUrl, latest, event, start);
+            }
+            if (cache != null && outcome == RefreshOutcome.UNCHANGED) {
+                cache.publish(remoteRules, false); // Tells the others the list is still current
+            }
+        } catch (IOException | URISyntaxException e) {
+            System.err.println("Failed to load remote filters: " + e.getMessage());
+        }
+        event.ruleList = FilterCategory.REMOTE_FILTERS_TYPE;
+        event.commit();
+        return outcome;
     }
 
     /**
-     * Checks if a message should be filtered based on the loaded patterns.
-     * @param message The message to check
-     * @return true if the message should be filtered, false otherwise
+     * Opens the shared cache configured for a remote list, closing the one for a previous
+     * directory or URL, and watches it for snapshots published by the leader.
+     * Called with the refresh lock held.
+     * @return The cache, or null if no shared directory is configured
      */
-    public boolean shouldFilterMessage(String message) {
-        if (!isInitialized) {
-            initialize();
+    private SharedRuleCache openSharedCache(FilterConfig config, String remoteUrl) {
+        String directory = config.getSharedCacheDirectory();
+        String key = directory.isEmpty() ? "" : directory + "\n" + remoteUrl;
+        if (key.equals(sharedCacheKey)) {
+            return sharedCache;
         }
 
-        FilterConfig config = FilterConfig.getInstance();
-        if (!config.isEnabled()) {
-            return false; // Filtering is disabled
+        closeSharedCache();
+        sharedCacheKey = key;
+        if (directory.isEmpty()) {
+            return null;
         }
+        try {
+            sharedCache = SharedRuleCache.open(directory, remoteUrl);
+            sharedCacheWatcher = sharedCacheExecutor.scheduleWithFixedDelay(this::pollSharedRules,
+                    SHARED_CACHE_POLL_SECONDS, SHARED_CACHE_POLL_SECONDS, TimeUnit.SECONDS);
+        } catch (IOException e) {
+            System.err.println("Failed to open shared rule cache: " + e.getMessage());
+        }
+        return sharedCache;
+    }
 
-        // Check custom filters
-        if (config.isUseCustomFilters()) {
-            for (Pattern pattern : customPatterns) {
-                if (pattern.matcher(message).find()) {
-                    return true; // Message matches a custom filter pattern
-                }
+    /**
+     * Closes the shared cache. Called with the refresh lock held.
+     */
+    private void closeSharedCache() {
+        if (sharedCacheWatcher != null) {
+            sharedCacheWatcher.cancel(false);
+            sharedCacheWatcher = null;
+        }
+        if (sharedCache != null) {
+            sharedCache.close();
+            sharedCache = null;
+        }
+        sharedCacheKey = "";
+    }
+
+    /**
+     * Picks up snapshots published by the leader between refreshes.
+     * Skipped while a refresh runs, which loads the snapshot itself.
+     */
+    private void pollSharedRules() {
+        if (!remoteRefreshLock.tryLock()) {
+            return;
+        }
+        try {
+            SharedRuleCache cache = sharedCache;
+            if (cache != null && !cache.isLeader() && FilterConfig.getInstance().isUseRemoteFilters()) {
+                loadSharedRules(cache);
             }
+        } finally {
+            remoteRefreshLock.unlock();
         }
+    }
 
-        // Check remote filters
-        if (config.isUseRemoteFilters()) {
-            for (Pattern pattern : remotePatterns) {
-                if (pattern.matcher(message).find()) {
-                    return true; // Message matches a remote filter pattern
+    /**
+     * Swaps in the latest snapshot published by the leader.
+     * The snapshot replaces the list this client fetched itself, so delta state is dropped.
+     * @return CHANGED if a newer snapshot was loaded
+     */
+    private RefreshOutcome loadSharedRules(SharedRuleCache cache) {
+        try {
+            RuleSet rules = cache.loadIfNewer();
+            if (rules == null) {
+                return RefreshOutcome.UNCHANGED;
+            }
+            swapRemoteRules(rules);
+            remoteLines = Collections.emptyList();
+            remoteVersion = null;
+            remoteETag = null;
+            remoteLastModified = null;
+            System.out.println("Loaded " + rules.size() + " remote filters from the shared cache");
+            return RefreshOutcome.CHANGED;
+        } catch (IOException e) {
+            System.err.println("Failed to load shared remote filters: " + e.getMessage());
+            return RefreshOutcome.FAILED;
+        }
+    }
+
+    /**
+     * Gets the directory the remote list and its version are stored in:
+     * the shared cache when one is open, otherwise the filters directory.
+     */
+    private Path getRemoteStoreDirectory(FilterConfig config) {
+        SharedRuleCache cache = sharedCache;
+        return cache != null ? cache.getDirectory() : Paths.get(config.getFiltersDirectory());
+    }
+
+    /**
+     * Checks whether this client shares its remote list with other clients.
+     * @return null if no shared cache is configured, otherwise whether this client fetches for the others
+     */
+    public Boolean isSharedCacheLeader() {
+        SharedRuleCache cache = sharedCache;
+        return cache != null ? cache.isLeader() : null;
+    }
+
+    /**
+     * Updates the remote list by applying the diff from the loaded version to the latest one.
+     * @return The outcome, or FAILED if a full download is needed
+     */
+    private RefreshOutcome tryDeltaUpdate(FilterConfig config, String remoteUrl, DeltaUpdate.Version latest,
+                                          FilterRefreshEvent event, long start) throws IOException, URISyntaxException {
+        if (latest == null || remoteVersion == null) {
+            return RefreshOutcome.FAILED;
+        }
+
+        if (latest.equals(remoteVersion)) {
+            event.fetchDuration = System.nanoTime() - start;
+            event.ruleCount = remoteRules.size();
+            event.success = true;
+            return RefreshOutcome.UNCHANGED;
+        }
+
+        HttpURLConnection connection = openConnection(DeltaUpdate.diffUrl(remoteUrl, remoteVersion.version(), latest.version()));
+        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+            return RefreshOutcome.FAILED; // No diff for this pair of versions
+        }
+
+        DeltaUpdate.Diff diff = DeltaUpdate.parseDiff(readLines(connection));
+        List<String> lines = DeltaUpdate.applyDiff(remoteLines, diff);
+        if (lines == null || !DeltaUpdate.hash(lines).equals(latest.hash())) {
+            System.err.println("Remote filter delta did not verify, falling back to a full download");
+            return RefreshOutcome.FAILED;
+        }
+
+        long fetched = System.nanoTime();
+        event.fetchDuration = fetched - start;
+        String previousVersion = remoteVersion.version();
+        swapRemoteFilters(config, lines, diff, latest, event, fetched);
+        System.out.println("Remote filters updated from version " + previousVersion + " to " + latest.version());
+        return RefreshOutcome.CHANGED;
+    }
+
+    /**
+     * Downloads the whole remote list, sending the validators of the last fetch
+     * so an unchanged list costs no download.
+     * @return The outcome of the download
+     */
+    private RefreshOutcome fullDownload(FilterConfig config, String remoteUrl, DeltaUpdate.Version latest,
+                                        FilterRefreshEvent event, long start) throws IOException, URISyntaxException {
+        HttpURLConnection connection = openConnection(remoteUrl);
+        if (remoteETag != null) {
+            connection.setRequestProperty("If-None-Match", remoteETag);
+        }
+        if (remoteLastModified != null) {
+            connection.setRequestProperty("If-Modified-Since", remoteLastModified);
+        }
+
+        int responseCode = connection.getResponseCode();
+        if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+            event.fetchDuration = System.nanoTime() - start;
+            event.ruleCount = remoteRules.size();
+            event.success = true;
+            return RefreshOutcome.UNCHANGED;
+        }
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            System.err.println("Failed to fetch remote filters. Response code: " + responseCode);
+            return RefreshOutcome.FAILED;
+        }
+
+        List<String> lines = readLines(connection);
+        long fetched = System.nanoTime();
+        event.fetchDuration = fetched - start;
+        remoteETag = connection.getHeaderField("ETag");
+        remoteLastModified = connection.getHeaderField("Last-Modified");
+
+        // Only trust the published version if the download really is that version
+        DeltaUpdate.Version version = latest != null && DeltaUpdate.hash(lines).equals(latest.hash()) ? latest : null;
+
+        if (lines.equals(remoteLines)) {
+            // Same list as before, keep the compiled rules
+            remoteVersion = version;
+            event.ruleCount = remoteRules.size();
+            event.success = true;
+            return RefreshOutcome.UNCHANGED;
+        }
+
+        swapRemoteFilters(config, lines, null, version, event, fetched);
+        return RefreshOutcome.CHANGED;
+    }
+
+    /**
+     * Compiles a new remote list, reusing the rules of unchanged lines, swaps it in
+     * and saves it together with its version. A verified diff is applied to the
+     * compiled rules instead, see {@link RuleSet#update}.
+     * @param diff The diff turning the loaded list into this one, or null after a full download
+     */
+    private void swapRemoteFilters(FilterConfig config, List<String> lines, DeltaUpdate.Diff diff, DeltaUpdate.Version version,
+                                   FilterRefreshEvent event, long fetched) throws IOException {
+        RuleSet rules = diff != null
+                ? RuleSet.update(remoteRules, diff.removed(), diff.added(), lines)
+                : RuleSet.compile(FilterCategory.REMOTE_FILTERS_TYPE, lines, remoteRules);
+        long compiled = System.nanoTime();
+        event.compileDuration = compiled - fetched;
+
+        swapRemoteRules(rules);
+        remoteLines = TextArena.compact(lines);
+        remoteVersion = version;
+        event.swapDuration = System.nanoTime() - compiled;
+        event.ruleCount = rules.size();
+        event.success = true;
+
+        // Published before the list is saved, so a stored list is never newer than the snapshot
+        if (sharedCache != null) {
+            sharedCache.publish(rules, true);
+        }
+
+        // Save to local file for reference, and as the base for the next delta update
+        Path storeDirectory = getRemoteStoreDirectory(config);
+        Path remoteFilePath = storeDirectory.resolve(FilterCategory.REMOTE_FILTERS_FILENAME);
+        Files.write(remoteFilePath, lines);
+        Path versionFilePath = storeDirectory.resolve(FilterCategory.REMOTE_VERSION_FILENAME);
+        if (version != null) {
+            Files.writeString(versionFilePath, DeltaUpdate.formatVersion(version) + remoteListUrl + "\n");
+        } else {
+            Files.deleteIfExists(versionFilePath);
+        }
+    }
+
+    /**
+     * Loads the remote list saved by a previous session if its version file verifies,
+     * so the first refresh can be a delta update.
+     */
+    private void loadStoredRemoteFilters(FilterConfig config) {
+        Path storeDirectory = getRemoteStoreDirectory(config);
+        Path remoteFilePath = storeDirectory.resolve(FilterCategory.REMOTE_FILTERS_FILENAME);
+        Path versionFilePath = storeDirectory.resolve(FilterCategory.REMOTE_VERSION_FILENAME);
+        try {
+            if (!Files.exists(versionFilePath) || !Files.exists(remoteFilePath)) {
+                return;
+            }
+
+            // First line is the version, second line the URL the list was fetched from
+            List<String> versionLines = Files.readAllLines(versionFilePath);
+            if (versionLines.size() < 2 || !versionLines.get(1).equals(remoteListUrl)) {
+                return;
+            }
+            DeltaUpdate.Version version = DeltaUpdate.parseVersion(versionLines.get(0));
+            List<String> lines = Files.readAllLines(remoteFilePath);
+            if (version == null || !DeltaUpdate.hash(lines).equals(version.hash())) {
+                return;
+            }
+
+            swapRemoteRules(RuleSet.compile(FilterCategory.REMOTE_FILTERS_TYPE, lines, RuleSet.EMPTY));
+            remoteLines = TextArena.compact(lines);
+            remoteVersion = version;
+        } catch (IOException e) {
+            System.err.println("Failed to load stored remote filters: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Fetches the version file published next to the remote list.
+     * A host without one is not asked again until the URL changes.
+     * @return The latest version, or null if unavailable
+     */
+    private DeltaUpdate.Version fetchLatestVersion(String remoteUrl) throws URISyntaxException {
+        try {
+            HttpURLConnection connection = openConnection(DeltaUpdate.versionUrl(remoteUrl));
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+                    deltaSupported = false;
                 }
+                return null;
+            }
+            List<String> lines = readLines(connection);
+            DeltaUpdate.Version version = lines.isEmpty() ? null : DeltaUpdate.parseVersion(lines.get(0));
+            if (version == null) {
+                deltaSupported = false;
             }
+            return version;
+        } catch (IOException e) {
+            return null; // The full download reports network errors
         }
+    }
 
-        return false; // No match found
+    private static HttpURLConnection openConnection(String url) throws IOException, URISyntaxException {
+        HttpURLConnection connection = (HttpURLConnection) new URI(url).toURL().openConnection();
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(5000);
+        connection.setReadTimeout(5000);
+        return connection;
+    }
+
+    private static List<String> readLines(HttpURLConnection connection) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+            List<String> lines = new ArrayList<>();
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+            return lines;
+        }
+    }
+
+    /**
+     * Publishes a new remote rule set to the readers of the filter.
+     */
+    private synchronized void swapRemoteRules(RuleSet rules) {
+        remoteRules = rules;
+        ruleSetVersion.incrementAndGet();
+    }
+
+    /**
+     * Drops the remote rules together with the state used to detect unchanged lists,
+     * so re-enabling remote filters always recompiles. Called with the refresh lock held.
+     */
+    private void clearRemoteFilters() {
+        swapRemoteRules(RuleSet.EMPTY); // Bumps the version, so messages passed earlier are checked again
+        remoteLines = Collections.emptyList();
+        remoteVersion = null;
+        remoteETag = null;
+        remoteLastModified = null;
+    }
+
+    /**
+     * Checks if a message should be filtered based on the loaded patterns.
+     * @param message The message to check
+     * @return true if the message should be filtered, false otherwise
+     */
+    public boolean shouldFilterMessage(String message) {
+        return shouldFilterMessage(message, null);
+    }
+
+    /**
+     * Checks if a message should be filtered, running only the rules scoped to its kind.
+     * @param message The message to check
+     * @param kind The kind of the message, or null to run every rule
+     * @return true if the message should be filtered, false otherwise
+     */
+    public boolean shouldFilterMessage(String message, MessageKind kind) {
+        return shouldFilterMessage(message, kind, List.of());
+    }
+
+    /**
+     * Checks if a message should be filtered, also checking the targets of its clickable links
+     * against the domain rules.
+     * @param message The message to check
+     * @param kind The kind of the message, or null to run every rule
+     * @param links The targets of clickable links in the message
+     * @return true if the message should be filtered, false otherwise
+     */
+    public boolean shouldFilterMessage(String message, MessageKind kind, List<String> links) {
+        return filterMessage(message, kind, links) != null;
+    }
+
+    /**
+     * Filters a message about to be shown: finds the rule blocking it and records the verdict,
+     * see {@link #recordVerdict}.
+     * @param message The message to check
+     * @param kind The kind of the message, or null to run every rule
+     * @param links The targets of clickable links in the message
+     * @return The rule blocking the message, or null if it passes
+     */
+    public FilterRule filterMessage(String message, MessageKind kind, List<String> links) {
+        // Only allocated for real while a recording has the event enabled
+        FilterEvaluationEvent event = new FilterEvaluationEvent();
+        event.begin();
+
+        FilterRule rule = findMatchingRule(message, kind, links);
+
+        if (event.shouldCommit()) {
+            event.ruleList = rule != null ? rule.getCategory() : null;
+            event.ruleIndex = rule != null ? rule.getIndex() : -1;
+            event.messageLength = message.length();
+            event.blocked = rule != null;
+            event.commit();
+        }
+
+        recordVerdict(message, kind, rule);
+        return rule;
+    }
+
+    /**
+     * Learns from the verdict on a message: trains the classifier, raises the sender's reputation
+     * and records blocked messages in the history. Must run once per message, on the client thread;
+     * the packet stage only looks up the rule and hands the verdict over.
+     * @param message The message that was checked
+     * @param kind The kind of the message, or null if unknown
+     * @param rule The rule blocking the message, or null if it passed
+     */
+    public void recordVerdict(String message, MessageKind kind, FilterRule rule) {
+        FilterConfig config = FilterConfig.getInstance();
+        if (config.isClassifierEnabled()) {
+            trainClassifier(message, rule);
+        }
+        if (config.isReputationEnabled() && rule != null && rule.getIndex() >= 0) {
+            raiseReputation(message); // Only rule matches count, so a reputation block can't feed itself
+        }
+        if (rule != null) {
+            history.record(rule, kind, message);
+        }
     }
 
     /**
@@ -245,8 +798,38 @@ public class MessageFilter {
      * @return "CUSTOM" if matched by custom filter, "REMOTE" if matched by remote filter, or null if no match
      */
     public String getMatchingFilterType(String message) {
+        FilterRule rule = findMatchingRule(message, null, List.of());
+        return rule != null ? rule.getCategory() : null;
+    }
+
+    /**
+     * Gets the rule that causes a message to be filtered.
+     * @param message The message to check
+     * @param kind The kind of the message, or null to check every rule
+     * @return The first matching rule, or null if no match
+     */
+    public FilterRule getMatchingRule(String message, MessageKind kind) {
+        return findMatchingRule(message, kind, List.of());
+    }
+
+    /**
+     * Gets the rule that causes a message to be filtered, also checking its links.
+     * @param message The message to check
+     * @param kind The kind of the message, or null to check every rule
+     * @param links The targets of clickable links in the message
+     * @return The first matching rule, or null if no match
+     */
+    public FilterRule getMatchingRule(String message, MessageKind kind, List<String> links) {
+        return findMatchingRule(message, kind, links);
+    }
+
+    private FilterRule findMatchingRule(String message, MessageKind kind, List<String> links) {
         if (!isInitialized) {
-            initialize();
+            synchronized (this) {
+                if (!isInitialized) {
+                    initialize();
+                }
+            }
         }
 
         FilterConfig config = FilterConfig.getInstance();
@@ -254,55 +837,185 @@ public class MessageFilter {
             return null; // Filtering is disabled
         }
 
+        // Allowed messages skip every other stage
+        if (allowList.isAllowed(message)) {
+            return null;
+        }
+
+        // Known spammers are blocked with one lookup, without evaluating any pattern
+        if (config.isReputationEnabled()) {
+            long sender = Senders.findSender(message);
+            if (sender >= 0 && reputation.isBlocked(Senders.hashSender(message, sender),
+                    config.getReputationThreshold(), System.currentTimeMillis())) {
+                return REPUTATION_RULE;
+            }
+        }
+
+        // Statistical pre-stage, catches new ad variants before anyone writes a rule for them
+        if (config.isClassifierEnabled() && classifier.isTrained()
+                && classifier.spamProbability(message) >= config.getClassifierThreshold()) {
+            return CLASSIFIER_RULE;
+        }
+
+        // Extract URL and domain tokens once for the domain rules of both lists
+        RuleSet custom = config.isUseCustomFilters() ? customRules : RuleSet.EMPTY;
+        RuleSet remote = config.isUseRemoteFilters() ? remoteRules : RuleSet.EMPTY;
+        DomainTokens domainTokens = custom.hasDomainRules() || remote.hasDomainRules()
+                ? DomainTokens.extract(message, links) : DomainTokens.NONE;
+
         // Check custom filters
         if (config.isUseCustomFilters()) {
-            for (Pattern pattern : customPatterns) {
-                if (pattern.matcher(message).find()) {
-                    return "CUSTOM"; // Return custom filter type
-                }
+            FilterRule rule = custom.findMatch(message, domainTokens, kind);
+            if (rule != null) {
+                return rule; // Message matches a custom filter rule
             }
         }
 
         // Check remote filters
         if (config.isUseRemoteFilters()) {
-            for (Pattern pattern : remotePatterns) {
-                if (pattern.matcher(message).find()) {
-                    return "REMOTE"; // Return remote filter type
-                }
+            FilterRule rule = remote.findMatch(message, domainTokens, kind);
+            if (rule != null) {
+                return rule; // Message matches a remote filter rule
             }
         }
 
         return null; // No match found
     }
 
-    public Pattern getMatchingPattern(String message) {
-        if (!isInitialized) {
-            initialize();
+    /**
+     * Gets a counter that changes whenever a new rule list has been swapped in.
+     * @return The current rule set version
+     */
+    public int getRuleSetVersion() {
+        return ruleSetVersion.get();
+    }
+
+    /**
+     * Gets the number of loaded rules per message kind.
+     * @param kind The message kind
+     * @return The number of custom and remote rules that apply to the kind
+     */
+    public int getRuleCount(MessageKind kind) {
+        return customRules.count(kind) + remoteRules.count(kind);
+    }
+
+    /**
+     * Estimates the heap used by the loaded rules and the stored remote list, not counting compiled regexes.
+     * @return The estimated bytes
+     */
+    public long getRuleMemoryUsage() {
+        return customRules.memoryUsage() + remoteRules.memoryUsage() + TextArena.memoryUsage(remoteLines);
+    }
+
+    /**
+     * Gets the number of regex rules compiled so far. Regexes are compiled on first use.
+     * @return The number of compiled regexes over both rule lists
+     */
+    public int getCompiledRegexCount() {
+        return customRules.countCompiledRegexes() + remoteRules.countCompiledRegexes();
+    }
+
+    /**
+     * Gets the number of loaded rules of a type, over both rule lists.
+     *
+     * @param type The rule type
+     * @return The number of rules of that type
+     */
+    public int getRuleCount(RuleType type) {
+        return customRules.count(type) + remoteRules.count(type);
+    }
+
+    /**
+     * Learns from the verdict of the rules: blocked messages are spam, a sample of the
+     * unblocked ones is ham. Verdicts of the classifier and the sender
+     * reputation are not fed back, and neither are messages no rule list looked at.
+     */
+    private void trainClassifier(String message, FilterRule rule) {
+        if (rule == CLASSIFIER_RULE || rule == REPUTATION_RULE) {
+            return;
         }
+        if (rule != null) {
+            classifier.train(message, true);
+        } else if (wasCheckedByRules(message) && unblockedMessages.incrementAndGet() % HAM_SAMPLE_RATE == 0) {
+            classifier.train(message, false);
+        }
+    }
 
+    /**
+     * Checks whether a message that passed was really evaluated against a rule list, rather than
+     * let through because filtering is off, no list is loaded or the allow list accepted it.
+     */
+    private boolean wasCheckedByRules(String message) {
         FilterConfig config = FilterConfig.getInstance();
-        if (!config.isEnabled()) {
-            return null; // Filtering is disabled
+        if (!config.isEnabled() || allowList.isAllowed(message)) {
+            return false;
         }
+        return config.isUseCustomFilters() && customRules.size() > 0
+                || config.isUseRemoteFilters() && remoteRules.size() > 0;
+    }
 
-        // Check custom filters
-        if (config.isUseCustomFilters()) {
-            for (Pattern pattern : customPatterns) {
-                if (pattern.matcher(message).find()) {
-                    return pattern;
-                }
-            }
+    /**
+     * Trains the spam classifier with a message labelled by the user and saves the model.
+     * @param message The message
+     * @param spam true if the message is spam, false if it is ham
+     */
+    public void markMessage(String message, boolean spam) {
+        classifier.train(message, spam);
+        saveClassifier();
+    }
+
+    /**
+     * Saves the spam classifier model next to the configuration if it changed.
+     */
+    public void saveClassifier() {
+        classifier.saveIfDirty(getClassifierModelPath());
+    }
+
+    private void raiseReputation(String message) {
+        long sender = Senders.findSender(message);
+        if (sender >= 0) {
+            reputation.raise(Senders.hashSender(message, sender), System.currentTimeMillis());
         }
+    }
 
-        // Check remote filters
-        if (config.isUseRemoteFilters()) {
-            for (Pattern pattern : remotePatterns) {
-                if (pattern.matcher(message).find()) {
-                    return pattern;
-                }
-            }
+    /**
+     * Saves the sender reputation next to the configuration if it changed and persistence is enabled.
+     */
+    public void saveReputation() {
+        if (FilterConfig.getInstance().isReputationPersisted()) {
+            reputation.saveIfDirty(getReputationPath());
         }
+    }
 
-        return null; // No match found
+    /**
+     * Gets the sender reputation.
+     * @return The sender reputation
+     */
+    public SenderReputation getReputation() {
+        return reputation;
+    }
+
+    /**
+     * Gets the spam classifier.
+     * @return The classifier
+     */
+    public SpamClassifier getClassifier() {
+        return classifier;
+    }
+
+    /**
+     * Gets the history of blocked messages.
+     * @return The blocked history
+     */
+    public BlockedHistory getHistory() {
+        return history;
+    }
+
+    private static Path getClassifierModelPath() {
+        return Paths.get(FilterConfig.getInstance().getConfigDirectory(), FilterCategory.CLASSIFIER_MODEL_FILENAME);
+    }
+
+    private static Path getReputationPath() {
+        return Paths.get(FilterConfig.getInstance().getConfigDirectory(), FilterCategory.REPUTATION_FILENAME);
     }
 }
@@ -0,0 +1,52 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+/**
+ * Kinds of chat lines a filter rule can be scoped to.
+ */
+public enum MessageKind {
+    /** Public chat sent by players. */
+    CHAT("chat"),
+    /** Private messages to or from the player. */
+    WHISPER("whisper"),
+    /** Server and system messages such as deaths, broadcasts and queue updates. */
+    SYSTEM("system");
+
+    /** Scope mask matching every kind. */
+    public static final int ALL = (1 << values().length) - 1;
+
+    private final String keyword;
+
+    MessageKind(String keyword) {
+        this.keyword = keyword;
+    }
+
+    /**
+     * Gets the keyword used to scope a rule to this kind, e.g. {@code @chat:}.
+     * @return The keyword
+     */
+    public String getKeyword() {
+        return keyword;
+    }
+
+    /**
+     * Gets the bit of this kind in a scope mask.
+     * @return The bit
+     */
+    public int getBit() {
+        return 1 << ordinal();
+    }
+
+    /**
+     * Looks up a kind by its rule keyword.
+     * @param keyword The keyword
+     * @return The kind, or null if the keyword is unknown
+     */
+    public static MessageKind fromKeyword(String keyword) {
+        for (MessageKind kind : values()) {
+            if (kind.keyword.equalsIgnoreCase(keyword)) {
+                return kind;
+            }
+        }
+        return null;
+    }
+}
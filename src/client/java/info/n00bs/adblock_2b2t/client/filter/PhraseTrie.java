@@ -0,0 +1,239 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Character trie of case-folded phrases for {@link RuleType#EXACT} rules and regex prefilter literals.
+ * <p>
+ * The trie is path compressed and packed into flat arrays: a chain of nodes with a single
+ * child becomes one edge labelled with a range of {@code labels}, and the outgoing edges of a
+ * node are a range of the edge arrays sorted by their first character. A lookup is a binary
+ * search per branch, matching allocates nothing, and most phrases cost little more than their text.
+ */
+public final class PhraseTrie {
+    private final int[] firstEdge; // Edges of node n are firstEdge[n] until firstEdge[n + 1]
+    private final char[] edgeChars; // First character of each edge label
+    private final int[] edgeTargets;
+    private final int[] labelStart; // Label of edge e is labels[labelStart[e]] until labels[labelStart[e + 1]]
+    private final char[] labels;
+    private final int[] ruleAt; // First rule id ending at a node, or -1
+
+    private PhraseTrie(int[] firstEdge, char[] edgeChars, int[] edgeTargets, int[] labelStart, char[] labels, int[] ruleAt) {
+        this.firstEdge = firstEdge;
+        this.edgeChars = edgeChars;
+        this.edgeTargets = edgeTargets;
+        this.labelStart = labelStart;
+        this.labels = labels;
+        this.ruleAt = ruleAt;
+    }
+
+    /**
+     * Finds a phrase contained in a message.
+     * @param message The message
+     * @param selector Decides whether the rules of a phrase that was found apply
+     * @return The id of the selected rule, or -1
+     */
+    int find(String message, RuleSelector selector) {
+        if (ruleAt.length == 1) {
+            return -1; // Only the root, no phrases
+        }
+
+        int length = message.length();
+        for (int start = 0; start < length; start++) {
+            int node = 0;
+            int i = start;
+            while (i < length) {
+                int edge = edge(node, TextHash.fold(message.charAt(i)));
+                if (edge < 0) {
+                    break;
+                }
+
+                // The first character matched, the rest of the label must follow
+                int labelEnd = labelStart[edge + 1];
+                int label = labelStart[edge] + 1;
+                i++;
+                while (label < labelEnd && i < length && labels[label] == TextHash.fold(message.charAt(i))) {
+                    label++;
+                    i++;
+                }
+                if (label < labelEnd) {
+                    break;
+                }
+
+                node = edgeTargets[edge];
+                if (ruleAt[node] >= 0) {
+                    int rule = selector.select(ruleAt[node], message);
+                    if (rule >= 0) {
+                        return rule;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    private int edge(int node, char c) {
+        int low = firstEdge[node];
+        int high = firstEdge[node + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char current = edgeChars[mid];
+            if (current < c) {
+                low = mid + 1;
+            } else if (current > c) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public int nodeCount() {
+        return ruleAt.length;
+    }
+
+    /**
+     * Estimates the heap used by the trie.
+     * @return The estimated bytes
+     */
+    public long memoryUsage() {
+        return firstEdge.length * 4L + edgeChars.length * 2L + edgeTargets.length * 4L
+                + labelStart.length * 4L + labels.length * 2L + ruleAt.length * 4L;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        RuleSnapshot.writeInts(out, firstEdge);
+        RuleSnapshot.writeChars(out, edgeChars);
+        RuleSnapshot.writeInts(out, edgeTargets);
+        RuleSnapshot.writeInts(out, labelStart);
+        RuleSnapshot.writeChars(out, labels);
+        RuleSnapshot.writeInts(out, ruleAt);
+    }
+
+    static PhraseTrie read(ByteBuffer in) {
+        return new PhraseTrie(RuleSnapshot.readInts(in), RuleSnapshot.readChars(in), RuleSnapshot.readInts(in),
+                RuleSnapshot.readInts(in), RuleSnapshot.readChars(in), RuleSnapshot.readInts(in));
+    }
+
+    /**
+     * Collects phrases and freezes them into a trie.
+     * While building, the children of a node are a linked list in primitive arrays.
+     */
+    public static final class Builder {
+        private int[] firstChild = new int[64];
+        private int[] nextSibling = new int[64];
+        private char[] label = new char[64];
+        private int[] rules = new int[64];
+        private int nodes;
+
+        public Builder() {
+            newNode('\0');
+        }
+
+        /**
+         * Adds a phrase. If the same phrase is added twice, the first rule id is kept.
+         * @param phrase The phrase
+         * @param rule The rule id reported for the phrase
+         * @return The first rule id of the phrase, which is {@code rule} unless it was added before
+         */
+        public int add(String phrase, int rule) {
+            int node = 0;
+            for (int i = 0; i < phrase.length(); i++) {
+                char c = TextHash.fold(phrase.charAt(i));
+                int child = firstChild[node];
+                while (child >= 0 && label[child] != c) {
+                    child = nextSibling[child];
+                }
+                if (child < 0) {
+                    child = newNode(c);
+                    nextSibling[child] = firstChild[node];
+                    firstChild[node] = child;
+                }
+                node = child;
+            }
+            if (rules[node] < 0) {
+                rules[node] = rule;
+            }
+            return rules[node];
+        }
+
+        private int newNode(char c) {
+            if (nodes == rules.length) {
+                int capacity = nodes * 2;
+                firstChild = Arrays.copyOf(firstChild, capacity);
+                nextSibling = Arrays.copyOf(nextSibling, capacity);
+                label = Arrays.copyOf(label, capacity);
+                rules = Arrays.copyOf(rules, capacity);
+            }
+            firstChild[nodes] = -1;
+            nextSibling[nodes] = -1;
+            label[nodes] = c;
+            rules[nodes] = -1;
+            return nodes++;
+        }
+
+        public PhraseTrie build() {
+            // Number the nodes that remain after compression: the root, phrase ends and branches
+            int[] packed = new int[nodes];
+            int packedNodes = 0;
+            for (int node = 0; node < nodes; node++) {
+                packed[node] = node == 0 || isKept(node) ? packedNodes++ : -1;
+            }
+
+            int[] firstEdge = new int[packedNodes + 1];
+            char[] edgeChars = new char[packedNodes - 1]; // Every kept node but the root has one incoming edge
+            int[] edgeTargets = new int[packedNodes - 1];
+            int[] labelStart = new int[packedNodes];
+            char[] labels = new char[nodes - 1]; // Each builder node but the root adds one character
+            int[] ruleAt = new int[packedNodes];
+            int edge = 0;
+            int labelCount = 0;
+            for (int node = 0; node < nodes; node++) {
+                if (packed[node] < 0) {
+                    continue;
+                }
+                firstEdge[packed[node]] = edge;
+                ruleAt[packed[node]] = rules[node];
+
+                int first = edge;
+                for (int child = firstChild[node]; child >= 0; child = nextSibling[child]) {
+                    // Insertion sort, nodes rarely have more than a handful of children
+                    int i = edge++;
+                    while (i > first && edgeChars[i - 1] > label[child]) {
+                        edgeChars[i] = edgeChars[i - 1];
+                        edgeTargets[i] = edgeTargets[i - 1];
+                        i--;
+                    }
+                    edgeChars[i] = label[child];
+                    edgeTargets[i] = child; // Builder node for now, resolved below
+                }
+
+                // Follow each edge down its chain of single children, collecting the label
+                for (int e = first; e < edge; e++) {
+                    labelStart[e] = labelCount;
+                    int target = edgeTargets[e];
+                    labels[labelCount++] = label[target];
+                    while (packed[target] < 0) {
+                        target = firstChild[target];
+                        labels[labelCount++] = label[target];
+                    }
+                    edgeTargets[e] = packed[target];
+                }
+            }
+            firstEdge[packedNodes] = edge;
+            labelStart[edge] = labelCount;
+            return new PhraseTrie(firstEdge, edgeChars, edgeTargets, labelStart, Arrays.copyOf(labels, labelCount), ruleAt);
+        }
+
+        /**
+         * Checks whether a node stays a node of the compressed trie.
+         */
+        private boolean isKept(int node) {
+            return rules[node] >= 0 || firstChild[node] < 0 || nextSibling[firstChild[node]] >= 0;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+/**
+ * Result of a single remote filter list refresh.
+ */
+public enum RefreshOutcome {
+    /** A new list was fetched and swapped in. */
+    CHANGED,
+    /** The remote list is identical to the one already loaded. */
+    UNCHANGED,
+    /** The list could not be fetched; the previous rules stay active. */
+    FAILED
+}
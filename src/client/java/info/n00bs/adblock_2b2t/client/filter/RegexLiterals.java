@@ -0,0 +1,186 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+/**
+ * Finds a literal that every match of a regular expression must contain, so the regex
+ * only needs to be compiled and run once that literal has been seen in a message.
+ * <p>
+ * The analysis is conservative: anything it doesn't fully understand, such as top-level
+ * alternation or inline flags, yields no literal and the regex is always run.
+ */
+final class RegexLiterals {
+    // Escapes followed by an argument, e.g. \x41 or \p{L}, or that quote text
+    private static final String ESCAPES_WITH_ARGUMENT = "xupPNckQE0";
+
+    private RegexLiterals() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Finds the longest literal a regex requires.
+     * @param regex The regular expression
+     * @return The literal, or null if the regex doesn't require one
+     */
+    static String requiredLiteral(String regex) {
+        String best = null;
+        StringBuilder run = new StringBuilder();
+        int length = regex.length();
+        int i = 0;
+        while (i < length) {
+            char c = regex.charAt(i);
+            int atomEnd;
+            boolean literal = false;
+
+            if (c == '\\') {
+                if (i + 1 >= length) {
+                    return null;
+                }
+                char escaped = regex.charAt(i + 1);
+                if (ESCAPES_WITH_ARGUMENT.indexOf(escaped) >= 0 || Character.isDigit(escaped)) {
+                    return null;
+                }
+                literal = !Character.isLetter(escaped);
+                c = escaped;
+                atomEnd = i + 2;
+            } else if (c == '[') {
+                atomEnd = skipClass(regex, i);
+            } else if (c == '(') {
+                if (regex.startsWith("(?", i) && !isPlainGroup(regex, i)) {
+                    return null; // Inline flags may turn on comments or Unicode case
+                }
+                atomEnd = skipGroup(regex, i);
+            } else if (c == '|') {
+                return null;
+            } else if (c == '.' || c == '^' || c == '$') {
+                atomEnd = i + 1;
+            } else if (c == '*' || c == '+' || c == '?' || c == '{' || c == ')') {
+                return null; // Quantifier without an atom, left to Pattern to reject
+            } else {
+                literal = true;
+                atomEnd = i + 1;
+            }
+            if (atomEnd < 0) {
+                return null;
+            }
+
+            // A quantifier decides whether the atom is required and whether the run can continue
+            int quantifierEnd = atomEnd;
+            boolean optional = false;
+            boolean repeated = false;
+            if (atomEnd < length) {
+                char q = regex.charAt(atomEnd);
+                if (q == '*' || q == '?') {
+                    optional = true;
+                    quantifierEnd = atomEnd + 1;
+                } else if (q == '+') {
+                    repeated = true;
+                    quantifierEnd = atomEnd + 1;
+                } else if (q == '{') {
+                    int close = regex.indexOf('}', atomEnd);
+                    if (close < 0) {
+                        return null;
+                    }
+                    String bounds = regex.substring(atomEnd + 1, close);
+                    int comma = bounds.indexOf(',');
+                    String min = comma >= 0 ? bounds.substring(0, comma) : bounds;
+                    if (min.isEmpty() || !min.chars().allMatch(Character::isDigit)) {
+                        return null;
+                    }
+                    optional = Integer.parseInt(min) == 0;
+                    repeated = !bounds.equals("1");
+                    quantifierEnd = close + 1;
+                }
+                // Lazy and possessive modifiers don't change what is required
+                if (quantifierEnd > atomEnd && quantifierEnd < length
+                        && (regex.charAt(quantifierEnd) == '?' || regex.charAt(quantifierEnd) == '+')) {
+                    quantifierEnd++;
+                }
+            }
+
+            if (literal && !optional) {
+                run.append(c);
+            }
+            if (!literal || optional || repeated) {
+                best = longer(best, run);
+                run.setLength(0);
+            }
+            i = quantifierEnd;
+        }
+        best = longer(best, run);
+        return best;
+    }
+
+    private static String longer(String best, StringBuilder run) {
+        return run.length() > 0 && (best == null || run.length() > best.length()) ? run.toString() : best;
+    }
+
+    /**
+     * Checks that a group starting with "(?" is non-capturing or a lookaround, not a flag group.
+     */
+    private static boolean isPlainGroup(String regex, int start) {
+        return regex.startsWith("(?:", start) || regex.startsWith("(?=", start) || regex.startsWith("(?!", start)
+                || regex.startsWith("(?<=", start) || regex.startsWith("(?<!", start) || regex.startsWith("(?>", start)
+                || regex.startsWith("(?<", start) && start + 3 < regex.length() && Character.isLetter(regex.charAt(start + 3));
+    }
+
+    /**
+     * Skips a character class, including nested classes and escapes.
+     * @return The index after the closing bracket, or -1 if it isn't closed
+     */
+    private static int skipClass(String regex, int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == '^') {
+                    i++;
+                }
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == ']') {
+                    i++; // A leading ] is a literal
+                }
+            } else if (c == ']' && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    /**
+     * Skips a group, including nested groups, classes and escapes.
+     * @return The index after the closing parenthesis, or -1 if it isn't closed
+     */
+    private static int skipGroup(String regex, int start) {
+        int depth = 0;
+        int i = start;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+                    return -1;
+                }
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                i = skipClass(regex, i);
+                if (i < 0) {
+                    return -1;
+                }
+                continue;
+            }
+            if (c == '(') {
+                depth++;
+            } else if (c == ')' && --depth == 0) {
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,340 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntFunction;
+import java.util.regex.Pattern;
+
+/**
+ * Matches a message against the rules of a list, using a specialized executor per rule type:
+ * a phrase trie for exact rules, a hashed token map for words, a reversed-label trie for domains
+ * and {@link Pattern} only for real regular expressions.
+ * <p>
+ * Rules are partitioned by their message kind scope, and every partition has its own executors,
+ * so a message only walks the rules that apply to its kind. Rules with the same key are chained,
+ * and a {@link RuleSelector} skips the ones removed by a delta update since the executors were built.
+ * <p>
+ * Regexes that require a literal are only compiled and run once the literal is found by a
+ * prefilter trie; the others run on every message.
+ * <p>
+ * Executors run cheapest first over all partitions of the kind, so when several rules match,
+ * the one reported is not necessarily the first in list order. Whether a message matches is unaffected.
+ */
+final class RuleMatcher {
+    // Executors in the order they run
+    private static final int PHRASES = 0;
+    private static final int WORDS = 1;
+    private static final int DOMAINS = 2;
+    private static final int REGEX_LITERALS = 3;
+    private static final int UNFILTERED_REGEXES = 4;
+
+    private final byte[] scopes; // 0 for rules removed since the executors were built
+    private final int[] nextSameKey; // Next rule with the same phrase, word, domain or literal, or -1
+    private final IntFunction<Pattern> patterns;
+    private final Partition[] partitions; // Indexed by scope mask, null where no rule has that scope
+
+    private final RuleSelector liveSelector = (rule, message) -> selectLive(rule);
+    private final RuleSelector regexSelector = this::selectRegex;
+
+    private RuleMatcher(byte[] scopes, int[] nextSameKey, IntFunction<Pattern> patterns, Partition[] partitions) {
+        this.scopes = scopes;
+        this.nextSameKey = nextSameKey;
+        this.patterns = patterns;
+        this.partitions = partitions;
+    }
+
+    /**
+     * Builds the executors for a set of rules.
+     * @param types The type of each rule
+     * @param scopes The message kind mask of each rule
+     * @param expressions The expression of each rule
+     * @param patterns Compiles a regex rule on first use, never returns null
+     * @return The matcher
+     */
+    static RuleMatcher build(RuleType[] types, byte[] scopes, String[] expressions, IntFunction<Pattern> patterns) {
+        return build(0, types, scopes, expressions, patterns);
+    }
+
+    /**
+     * Builds the executors for the rules from a position on, leaving out the ones before it.
+     * @param first The first rule to include
+     * @param types The type of each included rule
+     * @param scopes The message kind mask of each rule, 0 for rules to leave out
+     * @param expressions The expression of each included rule
+     * @param patterns Compiles a regex rule on first use, never returns null
+     * @return The matcher
+     */
+    static RuleMatcher build(int first, RuleType[] types, byte[] scopes, String[] expressions, IntFunction<Pattern> patterns) {
+        int count = types.length;
+        int[] nextSameKey = new int[count];
+        Arrays.fill(nextSameKey, -1);
+
+        Partition.Builder[] builders = new Partition.Builder[MessageKind.ALL + 1];
+        for (int rule = first; rule < count; rule++) {
+            if (scopes[rule] == 0) {
+                continue;
+            }
+            if (builders[scopes[rule]] == null) {
+                builders[scopes[rule]] = new Partition.Builder(count - first);
+            }
+            builders[scopes[rule]].add(nextSameKey, rule, types[rule], expressions[rule]);
+        }
+
+        Partition[] partitions = new Partition[MessageKind.ALL + 1];
+        for (int scope = 1; scope <= MessageKind.ALL; scope++) {
+            if (builders[scope] != null) {
+                partitions[scope] = builders[scope].build();
+            }
+        }
+        return new RuleMatcher(scopes, nextSameKey, patterns, partitions);
+    }
+
+    /**
+     * Reuses the executors for a later version of the list that only removed rules from the ones they hold.
+     * @param scopes The message kind mask of each rule of the new version, 0 for removed rules
+     * @param patterns Compiles a regex rule of the new version on first use
+     * @return The matcher
+     */
+    RuleMatcher withRules(byte[] scopes, IntFunction<Pattern> patterns) {
+        return new RuleMatcher(scopes, nextSameKey, patterns, partitions);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        RuleSnapshot.writeInts(out, nextSameKey);
+        for (int scope = 1; scope <= MessageKind.ALL; scope++) {
+            out.writeBoolean(partitions[scope] != null);
+            if (partitions[scope] != null) {
+                partitions[scope].write(out);
+            }
+        }
+    }
+
+    static RuleMatcher read(ByteBuffer in, byte[] scopes, IntFunction<Pattern> patterns) {
+        int[] nextSameKey = RuleSnapshot.readInts(in);
+        Partition[] partitions = new Partition[MessageKind.ALL + 1];
+        for (int scope = 1; scope <= MessageKind.ALL; scope++) {
+            if (in.get() != 0) {
+                partitions[scope] = Partition.read(in);
+            }
+        }
+        return new RuleMatcher(scopes, nextSameKey, patterns, partitions);
+    }
+
+    /**
+     * Appends a rule to the chain of the first rule with the same key.
+     */
+    private static void link(int[] nextSameKey, int head, int rule) {
+        if (head == rule) {
+            return;
+        }
+        int tail = head;
+        while (nextSameKey[tail] >= 0) {
+            tail = nextSameKey[tail];
+        }
+        nextSameKey[tail] = rule;
+    }
+
+    /**
+     * Finds a rule matching a message.
+     * @param message The message
+     * @param domainTokens The host tokens of the message, extracted once for all lists
+     * @param kind The kind of the message, or null to check every rule
+     * @return The index of a matching rule within its list, or -1
+     */
+    int find(String message, DomainTokens domainTokens, MessageKind kind) {
+        int kindMask = kind == null ? MessageKind.ALL : kind.getBit();
+        for (int executor = PHRASES; executor <= UNFILTERED_REGEXES; executor++) {
+            for (int scope = 1; scope <= MessageKind.ALL; scope++) {
+                Partition partition = partitions[scope];
+                if (partition != null && (scope & kindMask) != 0) {
+                    int rule = partition.find(executor, message, domainTokens, this);
+                    if (rule >= 0) {
+                        return rule;
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether any domain rules were compiled into this matcher.
+     * @return true if the message's host tokens are needed
+     */
+    boolean hasDomains() {
+        for (Partition partition : partitions) {
+            if (partition != null && !partition.domains.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Estimates the heap used by the executors, not counting compiled patterns.
+     * @return The estimated bytes
+     */
+    long memoryUsage() {
+        long bytes = nextSameKey.length * 4L;
+        for (Partition partition : partitions) {
+            if (partition != null) {
+                bytes += partition.memoryUsage();
+            }
+        }
+        return bytes;
+    }
+
+    private int selectLive(int rule) {
+        for (int current = rule; current >= 0; current = nextSameKey[current]) {
+            if (scopes[current] != 0) {
+                return current;
+            }
+        }
+        return -1;
+    }
+
+    private int selectRegex(int rule, String message) {
+        for (int current = rule; current >= 0; current = nextSameKey[current]) {
+            if (scopes[current] != 0 && patterns.apply(current).matcher(message).find()) {
+                return current;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matchesRegex(int rule, String message) {
+        return scopes[rule] != 0 && patterns.apply(rule).matcher(message).find();
+    }
+
+    /**
+     * The executors of the rules sharing one scope mask. Only holds rule ids,
+     * so it can be shared by the matchers of later versions of a list.
+     */
+    private static final class Partition {
+        private final PhraseTrie phrases;
+        private final LongIntHashMap words;
+        private final DomainTrie domains;
+        private final PhraseTrie regexLiterals;
+        private final int[] unfilteredRegexes;
+
+        private Partition(PhraseTrie phrases, LongIntHashMap words, DomainTrie domains, PhraseTrie regexLiterals,
+                          int[] unfilteredRegexes) {
+            this.phrases = phrases;
+            this.words = words;
+            this.domains = domains;
+            this.regexLiterals = regexLiterals;
+            this.unfilteredRegexes = unfilteredRegexes;
+        }
+
+        int find(int executor, String message, DomainTokens domainTokens, RuleMatcher matcher) {
+            switch (executor) {
+                case PHRASES:
+                    return phrases.find(message, matcher.liveSelector);
+                case WORDS:
+                    return words.size() > 0 ? findWord(message, words, matcher.liveSelector) : -1;
+                case DOMAINS:
+                    return domains.isEmpty() ? -1 : domainTokens.find(domains, matcher.liveSelector);
+                case REGEX_LITERALS:
+                    return regexLiterals.find(message, matcher.regexSelector);
+                default:
+                    for (int rule : unfilteredRegexes) {
+                        if (matcher.matchesRegex(rule, message)) {
+                            return rule;
+                        }
+                    }
+                    return -1;
+            }
+        }
+
+        long memoryUsage() {
+            return phrases.memoryUsage() + words.memoryUsage() + domains.memoryUsage()
+                    + regexLiterals.memoryUsage() + unfilteredRegexes.length * 4L;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            phrases.write(out);
+            words.write(out);
+            domains.write(out);
+            regexLiterals.write(out);
+            RuleSnapshot.writeInts(out, unfilteredRegexes);
+        }
+
+        static Partition read(ByteBuffer in) {
+            return new Partition(PhraseTrie.read(in), LongIntHashMap.read(in), DomainTrie.read(in), PhraseTrie.read(in),
+                    RuleSnapshot.readInts(in));
+        }
+
+        private static final class Builder {
+            private final PhraseTrie.Builder phrases = new PhraseTrie.Builder();
+            private final PhraseTrie.Builder regexLiterals = new PhraseTrie.Builder();
+            private final DomainTrie.Builder domains = new DomainTrie.Builder();
+            private final LongIntHashMap words = new LongIntHashMap(16);
+            private int[] unfiltered;
+            private int unfilteredCount;
+
+            Builder(int maxRules) {
+                unfiltered = new int[Math.min(maxRules, 16)];
+            }
+
+            void add(int[] nextSameKey, int rule, RuleType type, String expression) {
+                switch (type) {
+                    case EXACT -> link(nextSameKey, phrases.add(expression, rule), rule);
+                    case WORD -> link(nextSameKey, words.putIfAbsent(TextHash.hash(expression), rule), rule);
+                    case DOMAIN -> link(nextSameKey, domains.add(expression, rule), rule);
+                    case REGEX -> {
+                        String literal = RegexLiterals.requiredLiteral(expression);
+                        if (literal != null) {
+                            link(nextSameKey, regexLiterals.add(literal, rule), rule);
+                        } else {
+                            if (unfilteredCount == unfiltered.length) {
+                                unfiltered = Arrays.copyOf(unfiltered, Math.max(16, unfilteredCount * 2));
+                            }
+                            unfiltered[unfilteredCount++] = rule;
+                        }
+                    }
+                }
+            }
+
+            Partition build() {
+                return new Partition(phrases.build(), words, domains.build(), regexLiterals.build(),
+                        Arrays.copyOf(unfiltered, unfilteredCount));
+            }
+        }
+    }
+
+    /**
+     * Scans the message once for word tokens.
+     */
+    private static int findWord(String message, LongIntHashMap words, RuleSelector selector) {
+        int length = message.length();
+        int i = 0;
+        while (i < length) {
+            if (!isWordChar(message.charAt(i))) {
+                i++;
+                continue;
+            }
+            int start = i;
+            while (i < length && isWordChar(message.charAt(i))) {
+                i++;
+            }
+            int rule = words.get(TextHash.hash(message, start, i));
+            if (rule != LongIntHashMap.MISSING) {
+                rule = selector.select(rule, message);
+                if (rule >= 0) {
+                    return rule;
+                }
+            }
+        }
+        return -1;
+    }
+
+    static boolean isWordChar(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_';
+    }
+
+    static boolean isHostChar(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '.';
+    }
+}
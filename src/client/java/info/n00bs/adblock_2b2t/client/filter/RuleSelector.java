@@ -0,0 +1,15 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+/**
+ * Decides which of the rules stored under a key that was hit matches the message,
+ * so an executor can report keys without knowing how their rules are checked.
+ */
+interface RuleSelector {
+    /**
+     * Selects a rule.
+     * @param rule The first rule stored under the key
+     * @param message The message being matched
+     * @return The id of an applicable, matching rule, or -1 to keep searching
+     */
+    int select(int rule, String message);
+}
@@ -0,0 +1,397 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * An immutable, compiled filter list.
+ * <p>
+ * Rules are kept in a compact form: their lines are interned into one {@link TextArena},
+ * their type and message kind scope are single bytes, and the rules of each scope are compiled
+ * into executors per rule type, see {@link RuleMatcher}. {@link FilterRule} objects are only parsed
+ * again for a rule that matched. Regexes are compiled the first time they are needed.
+ * <p>
+ * A delta update of the list doesn't recompile it, see {@link #update}: removed rules keep their
+ * position without a scope, and added rules are appended with executors of their own.
+ */
+public final class RuleSet {
+    public static final RuleSet EMPTY = new RuleSet("", TextArena.EMPTY, new int[0], new RuleType[0],
+            new byte[0], new String[0], new Pattern[0]);
+
+    // Stands in for a regex that failed to compile, so it is reported only once
+    private static final Pattern INVALID = Pattern.compile("(?!)");
+
+    private final String category;
+    private final TextArena text;
+    private final int[] sourceIds;
+    private final byte[] types; // RuleType ordinals
+    private final byte[] scopes;
+    private final AtomicReferenceArray<Pattern> patterns;
+    private final RuleMatcher matcher;
+    private final RuleMatcher added; // Rules appended by delta updates since the last full compile, or null
+    private final int addedFrom; // Position of the first rule in the added executors
+    private final int removed; // Rules removed by delta updates, kept as unscoped positions
+
+    // A full compile is cheaper than searching this share of changed rules separately
+    private static final int MAX_CHANGED_SHARE = 4; // One in four
+
+    private RuleSet(String category, TextArena text, int[] sourceIds, RuleType[] types,
+                    byte[] scopes, String[] expressions, Pattern[] compiled) {
+        this.category = category;
+        this.text = text;
+        this.sourceIds = sourceIds;
+        this.types = new byte[types.length];
+        for (int rule = 0; rule < types.length; rule++) {
+            this.types[rule] = (byte) types[rule].ordinal();
+        }
+        this.scopes = scopes;
+        this.patterns = new AtomicReferenceArray<>(compiled);
+        this.matcher = RuleMatcher.build(types, scopes, expressions, this::pattern);
+        this.added = null;
+        this.addedFrom = sourceIds.length;
+        this.removed = 0;
+    }
+
+    private RuleSet(String category, TextArena text, int[] sourceIds, byte[] types, byte[] scopes, ByteBuffer executors) {
+        this.category = category;
+        this.text = text;
+        this.sourceIds = sourceIds;
+        this.types = types;
+        this.scopes = scopes;
+        this.patterns = new AtomicReferenceArray<>(sourceIds.length);
+        this.matcher = RuleMatcher.read(executors, scopes, this::pattern);
+        this.removed = executors.getInt();
+        this.addedFrom = executors.getInt();
+        this.added = executors.get() != 0 ? RuleMatcher.read(executors, scopes, this::pattern) : null;
+        if (addedFrom < 0 || addedFrom > sourceIds.length || removed < 0 || removed > sourceIds.length) {
+            throw new IllegalArgumentException("Damaged rule set");
+        }
+    }
+
+    private RuleSet(RuleSet previous, TextArena text, int[] sourceIds, byte[] types, byte[] scopes,
+                    AtomicReferenceArray<Pattern> patterns, int addedFrom, RuleType[] addedTypes,
+                    String[] addedExpressions, int removed) {
+        this.category = previous.category;
+        this.text = text;
+        this.sourceIds = sourceIds;
+        this.types = types;
+        this.scopes = scopes;
+        this.patterns = patterns;
+        this.matcher = previous.matcher.withRules(scopes, this::pattern);
+        this.added = RuleMatcher.build(addedFrom, addedTypes, scopes, addedExpressions, this::pattern);
+        this.addedFrom = addedFrom;
+        this.removed = removed;
+    }
+
+    /**
+     * Compiles the lines of a filter file.
+     * Empty lines and comments are skipped, invalid expressions are logged and skipped.
+     * Regexes are checked when they are first compiled.
+     * @param category The list the rules belong to ("CUSTOM" or "REMOTE")
+     * @param lines The lines of the filter file
+     * @param previous A previously compiled set whose compiled regexes are reused for unchanged lines
+     * @return The compiled rule set
+     */
+    public static RuleSet compile(String category, List<String> lines, RuleSet previous) {
+        // Only the regexes compiled so far are worth carrying over
+        Map<String, Pattern> reusable = new HashMap<>();
+        for (int rule = 0; rule < previous.sourceIds.length; rule++) {
+            Pattern pattern = previous.patterns.get(rule);
+            if (pattern != null) {
+                reusable.putIfAbsent(previous.text.get(previous.sourceIds[rule]), pattern);
+            }
+        }
+
+        TextArena.Builder arena = new TextArena.Builder(lines.size());
+        int[] sourceIds = new int[lines.size()];
+        RuleType[] types = new RuleType[lines.size()];
+        byte[] scopes = new byte[lines.size()];
+        String[] expressions = new String[lines.size()];
+        Pattern[] compiled = new Pattern[lines.size()];
+        int count = 0;
+
+        for (String line : lines) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue; // Skip empty lines and comments
+            }
+
+            FilterRule rule;
+            try {
+                rule = FilterRule.parse(category, count, line);
+            } catch (PatternSyntaxException e) {
+                System.err.println("Skipping invalid " + category.toLowerCase() + " filter \"" + line + "\": " + e.getDescription());
+                continue;
+            }
+
+            sourceIds[count] = arena.intern(line);
+            types[count] = rule.getType();
+            scopes[count] = (byte) rule.getScopeMask();
+            expressions[count] = rule.getExpression();
+            compiled[count] = rule.getType() == RuleType.REGEX ? reusable.get(line) : null;
+            count++;
+        }
+
+        return new RuleSet(category, arena.build(), Arrays.copyOf(sourceIds, count), Arrays.copyOf(types, count),
+                Arrays.copyOf(scopes, count), Arrays.copyOf(expressions, count), Arrays.copyOf(compiled, count));
+    }
+
+    /**
+     * Applies a delta update to a set compiled from the list the diff was made against, without
+     * recompiling the rules it keeps. Removed rules keep their position without a scope, so the
+     * executors of the previous set are reused as they are, and only the added rules are compiled,
+     * into executors searched after them. Once the rules changed since the last full compile make up
+     * a quarter of the set, the updated list is compiled from scratch instead.
+     * @param previous The set compiled from the list before the diff
+     * @param removedLines The lines removed by the diff, each dropping the first rule with that line
+     * @param addedLines The lines the diff appends to the list
+     * @param lines The whole updated list, used for a full compile
+     * @return The updated rule set
+     */
+    public static RuleSet update(RuleSet previous, List<String> removedLines, List<String> addedLines, List<String> lines) {
+        int slots = previous.sourceIds.length;
+        List<FilterRule> addedRules = new ArrayList<>(addedLines.size());
+        for (String line : addedLines) {
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                addedRules.add(FilterRule.parse(previous.category, slots + addedRules.size(), line));
+            } catch (PatternSyntaxException e) {
+                System.err.println("Skipping invalid " + previous.category.toLowerCase() + " filter \"" + line + "\": " + e.getDescription());
+            }
+        }
+
+        int changed = previous.removed + (slots - previous.addedFrom) + removedLines.size() + addedRules.size();
+        if (changed * MAX_CHANGED_SHARE > previous.size() + addedRules.size()) {
+            return compile(previous.category, lines, previous);
+        }
+
+        // Removals grouped by encoded length, so only rules of the same length are compared
+        int count = slots + addedRules.size();
+        byte[] scopes = Arrays.copyOf(previous.scopes, count);
+        Map<Integer, List<byte[]>> pending = new HashMap<>();
+        int pendingCount = 0;
+        for (String line : removedLines) {
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                byte[] encoded = line.getBytes(StandardCharsets.UTF_8);
+                pending.computeIfAbsent(encoded.length, length -> new ArrayList<>()).add(encoded);
+                pendingCount++;
+            }
+        }
+        int removed = previous.removed;
+        for (int rule = 0; rule < slots && pendingCount > 0; rule++) {
+            List<byte[]> candidates = scopes[rule] != 0 ? pending.get(previous.text.byteLength(previous.sourceIds[rule])) : null;
+            if (candidates == null) {
+                continue;
+            }
+            for (int i = 0; i < candidates.size(); i++) {
+                if (previous.text.contentEquals(previous.sourceIds[rule], candidates.get(i))) {
+                    candidates.remove(i); // A line listed twice removes two rules
+                    scopes[rule] = 0;
+                    removed++;
+                    pendingCount--;
+                    break;
+                }
+            }
+        }
+        // Lines left in pending were comments or invalid, and never became rules
+
+        List<String> addedSources = new ArrayList<>(addedRules.size());
+        for (FilterRule rule : addedRules) {
+            addedSources.add(rule.getSource());
+        }
+        TextArena text = previous.text.append(addedSources);
+        int[] sourceIds = Arrays.copyOf(previous.sourceIds, count);
+        byte[] types = Arrays.copyOf(previous.types, count);
+        AtomicReferenceArray<Pattern> patterns = new AtomicReferenceArray<>(count);
+        for (int rule = 0; rule < slots; rule++) {
+            if (scopes[rule] != 0) {
+                patterns.set(rule, previous.patterns.get(rule));
+            }
+        }
+
+        // The added executors cover the rules added by earlier updates as well
+        int addedFrom = previous.added != null ? previous.addedFrom : slots;
+        RuleType[] addedTypes = new RuleType[count];
+        String[] addedExpressions = new String[count];
+        for (int rule = addedFrom; rule < slots; rule++) {
+            if (scopes[rule] != 0) {
+                FilterRule existing = FilterRule.parse(previous.category, rule, previous.text.get(previous.sourceIds[rule]));
+                addedTypes[rule] = existing.getType();
+                addedExpressions[rule] = existing.getExpression();
+            }
+        }
+        for (int i = 0; i < addedRules.size(); i++) {
+            FilterRule rule = addedRules.get(i);
+            int position = slots + i;
+            sourceIds[position] = previous.text.size() + i;
+            types[position] = (byte) rule.getType().ordinal();
+            scopes[position] = (byte) rule.getScopeMask();
+            addedTypes[position] = rule.getType();
+            addedExpressions[position] = rule.getExpression();
+        }
+
+        return new RuleSet(previous, text, sourceIds, types, scopes, patterns, addedFrom, addedTypes, addedExpressions, removed);
+    }
+
+    /**
+     * Finds the first rule matching a message.
+     * @param message The message to check
+     * @param kind The kind of the message, or null to check every rule
+     * @return The matching rule, or null if none matches
+     */
+    public FilterRule findMatch(String message, MessageKind kind) {
+        return findMatch(message, hasDomainRules() ? DomainTokens.extract(message, List.of()) : DomainTokens.NONE, kind);
+    }
+
+    /**
+     * Finds the first rule matching a message whose host tokens were already extracted.
+     * @param message The message to check
+     * @param domainTokens The host tokens of the message and its links
+     * @param kind The kind of the message, or null to check every rule
+     * @return The matching rule, or null if none matches
+     */
+    public FilterRule findMatch(String message, DomainTokens domainTokens, MessageKind kind) {
+        int index = matcher.find(message, domainTokens, kind);
+        if (index < 0 && added != null) {
+            index = added.find(message, domainTokens, kind);
+        }
+        return index >= 0 ? getRule(index) : null;
+    }
+
+    /**
+     * Checks whether the set contains domain rules, which need the host tokens of a message.
+     * @return true if there are domain rules
+     */
+    public boolean hasDomainRules() {
+        return matcher.hasDomains() || added != null && added.hasDomains();
+    }
+
+    /**
+     * Gets a rule by its position in the list. Positions of removed rules stay taken
+     * until the list is compiled again.
+     * @param index The position of the rule
+     * @return The rule, recreated from its compact form
+     */
+    public FilterRule getRule(int index) {
+        FilterRule rule = FilterRule.parse(category, index, text.get(sourceIds[index]));
+        Pattern pattern = patterns.get(index);
+        return pattern != null && pattern != INVALID ? rule.withPattern(pattern) : rule;
+    }
+
+    /**
+     * Gets the compiled pattern of a regex rule, compiling it on first use.
+     * A regex that doesn't compile is logged once and never matches.
+     */
+    private Pattern pattern(int rule) {
+        Pattern pattern = patterns.get(rule);
+        if (pattern != null) {
+            return pattern;
+        }
+
+        PatternSyntaxException error = null;
+        try {
+            String expression = FilterRule.parse(category, rule, text.get(sourceIds[rule])).getExpression();
+            pattern = Pattern.compile(expression, Pattern.CASE_INSENSITIVE);
+        } catch (PatternSyntaxException e) {
+            pattern = INVALID;
+            error = e;
+        }
+        if (!patterns.compareAndSet(rule, null, pattern)) {
+            return patterns.get(rule); // Another thread compiled it first
+        }
+        if (error != null) {
+            System.err.println("Skipping invalid " + category.toLowerCase() + " filter \"" + text.get(sourceIds[rule]) + "\": " + error.getDescription());
+        }
+        return pattern;
+    }
+
+    /**
+     * Counts the rules of a type.
+     * @param type The rule type
+     * @return The number of rules compiled to that type's executor
+     */
+    public int count(RuleType type) {
+        int count = 0;
+        for (int rule = 0; rule < types.length; rule++) {
+            if (types[rule] == type.ordinal() && scopes[rule] != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Counts the rules that apply to a message kind.
+     * @param kind The message kind
+     * @return The number of rules scoped to the kind
+     */
+    public int count(MessageKind kind) {
+        int count = 0;
+        for (byte scope : scopes) {
+            if ((scope & kind.getBit()) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Counts the regexes compiled so far.
+     * @return The number of regex rules that have been compiled
+     */
+    public int countCompiledRegexes() {
+        int count = 0;
+        for (int rule = 0; rule < patterns.length(); rule++) {
+            if (patterns.get(rule) != null && scopes[rule] != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Estimates the heap used by the set, not counting compiled patterns.
+     * @return The estimated bytes
+     */
+    public long memoryUsage() {
+        return text.memoryUsage() + sourceIds.length * 4L + types.length + scopes.length
+                + patterns.length() * 4L + matcher.memoryUsage() + (added != null ? added.memoryUsage() : 0);
+    }
+
+    public int size() {
+        return sourceIds.length - removed;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeUTF(category);
+        text.write(out);
+        RuleSnapshot.writeInts(out, sourceIds);
+        RuleSnapshot.writeBytes(out, types);
+        RuleSnapshot.writeBytes(out, scopes);
+        matcher.write(out);
+        out.writeInt(removed);
+        out.writeInt(addedFrom);
+        out.writeBoolean(added != null);
+        if (added != null) {
+            added.write(out);
+        }
+    }
+
+    static RuleSet read(ByteBuffer in) {
+        byte[] category = new byte[in.getShort() & 0xFFFF];
+        in.get(category);
+        return new RuleSet(new String(category, StandardCharsets.UTF_8), TextArena.read(in), RuleSnapshot.readInts(in),
+                RuleSnapshot.readBytes(in), RuleSnapshot.readBytes(in), in);
+    }
+}
@@ -0,0 +1,126 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary snapshot of a compiled {@link RuleSet}: the text arena, the rule metadata and
+ * the packed executors, so another client can load a list without parsing or building tries.
+ * <p>
+ * Snapshots are read through a read-only memory mapping and their arrays are copied
+ * into the heap in bulk. Compiled regexes are not part of a snapshot; they are compiled
+ * on first use as usual.
+ */
+final class RuleSnapshot {
+    private static final int MAGIC = 0x41425253; // "ABRS"
+    private static final int FORMAT_VERSION = 3;
+
+    private RuleSnapshot() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Writes a snapshot.
+     * @param path The file to write
+     * @param rules The rule set
+     * @throws IOException If the file can't be written
+     */
+    static void write(Path path, RuleSet rules) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            rules.write(out);
+        }
+    }
+
+    /**
+     * Reads a snapshot.
+     * @param path The file to read
+     * @return The rule set
+     * @throws IOException If the file can't be read or isn't a valid snapshot
+     */
+    static RuleSet read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < 8 || in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION) {
+                throw new IOException("Not a rule snapshot: " + path);
+            }
+            return RuleSet.read(in);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Truncated rule snapshot: " + path, e);
+        }
+    }
+
+    /**
+     * Reads an array length, checking it against the bytes left so a damaged file can't
+     * cause a huge allocation.
+     */
+    private static int length(ByteBuffer in, int elementSize) {
+        int length = in.getInt();
+        if (length < 0 || (long) length * elementSize > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return length;
+    }
+
+    static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+        buffer.asIntBuffer().put(values);
+        out.writeInt(values.length);
+        out.write(buffer.array());
+    }
+
+    static int[] readInts(ByteBuffer in) {
+        int[] values = new int[length(in, 4)];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + values.length * 4);
+        return values;
+    }
+
+    static void writeLongs(DataOutputStream out, long[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 8);
+        buffer.asLongBuffer().put(values);
+        out.writeInt(values.length);
+        out.write(buffer.array());
+    }
+
+    static long[] readLongs(ByteBuffer in) {
+        long[] values = new long[length(in, 8)];
+        in.asLongBuffer().get(values);
+        in.position(in.position() + values.length * 8);
+        return values;
+    }
+
+    static void writeChars(DataOutputStream out, char[] values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 2);
+        buffer.asCharBuffer().put(values);
+        out.writeInt(values.length);
+        out.write(buffer.array());
+    }
+
+    static char[] readChars(ByteBuffer in) {
+        char[] values = new char[length(in, 2)];
+        in.asCharBuffer().get(values);
+        in.position(in.position() + values.length * 2);
+        return values;
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] values) throws IOException {
+        out.writeInt(values.length);
+        out.write(values);
+    }
+
+    static byte[] readBytes(ByteBuffer in) {
+        byte[] values = new byte[length(in, 1)];
+        in.get(values);
+        return values;
+    }
+}
@@ -0,0 +1,44 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+/**
+ * How a rule's expression is matched. Each type has its own executor, so only
+ * true regular expressions pay for {@code java.util.regex}.
+ */
+public enum RuleType {
+    /** The message contains the phrase, ignoring ASCII case. */
+    EXACT("exact"),
+    /** The message contains the word as a whole token of letters, digits and underscores. */
+    WORD("word"),
+    /** The message mentions the domain or one of its subdomains. */
+    DOMAIN("domain"),
+    /** The regular expression is found in the message, ignoring ASCII case. */
+    REGEX("regex");
+
+    private final String keyword;
+
+    RuleType(String keyword) {
+        this.keyword = keyword;
+    }
+
+    /**
+     * Gets the keyword used to declare a rule of this type, e.g. {@code @word:}.
+     * @return The keyword
+     */
+    public String getKeyword() {
+        return keyword;
+    }
+
+    /**
+     * Looks up a type by its rule keyword.
+     * @param keyword The keyword
+     * @return The type, or null if the keyword is unknown
+     */
+    public static RuleType fromKeyword(String keyword) {
+        for (RuleType type : values()) {
+            if (type.keyword.equalsIgnoreCase(keyword)) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,355 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Decaying spam score per sender, raised each time a rule blocks one of their messages.
+ * <p>
+ * Senders are keyed by the hash of their name in a fixed-size open addressing table of
+ * primitive arrays, threaded by a doubly linked list in the order of their last rule match.
+ * When the table is full the sender whose messages matched longest ago is evicted, so memory
+ * stays bounded however many accounts post. Scores halve every {@link #HALF_LIFE_MILLIS} and
+ * are capped at {@link #MAX_SCORE}, so a sender who stops spamming is let through again after a while.
+ * <p>
+ * Writers hold the lock of this object. {@link #isBlocked} runs for every message, so it takes
+ * no lock and writes nothing: the table carries a version that is odd while a writer changes it,
+ * and a lookup that overlapped a change is retried, like the slots of {@link BlockedHistory}.
+ */
+public class SenderReputation {
+    public static final float MAX_SCORE = 10f;
+    private static final long HALF_LIFE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final float MIN_SCORE = 0.05f; // Below this a sender is forgotten
+
+    private static final int MAX_SENDERS = 4096;
+    private static final int TABLE_SIZE = MAX_SENDERS * 2; // Power of two, at most half full
+    private static final int MASK = TABLE_SIZE - 1;
+    private static final long FREE = 0L; // Marks a free slot, real keys are never 0
+    private static final int NONE = -1;
+
+    private static final int FILE_MAGIC = 0x41425352; // "ABSR"
+    private static final int FILE_VERSION = 1;
+
+    private final AtomicLong version = new AtomicLong(); // Odd while a writer changes the table
+    private final long[] keys = new long[TABLE_SIZE];
+    private final float[] scores = new float[TABLE_SIZE]; // Score at the time of the last update
+    private final long[] updatedAt = new long[TABLE_SIZE];
+    private final int[] newer = new int[TABLE_SIZE]; // Usage list over the slots, by last rule match
+    private final int[] older = new int[TABLE_SIZE];
+    private int newest = NONE;
+    private int oldest = NONE;
+    private int size;
+    private boolean dirty;
+
+    /**
+     * Checks whether a sender's score has reached the threshold. One hash lookup, without
+     * locking or writing, safe to call from any thread.
+     * @param sender The sender hash, see {@link Senders#hashSender(String, long)}
+     * @param threshold The score at which senders are blocked
+     * @param now The current time in epoch milliseconds
+     * @return true if the sender is blocked
+     */
+    public boolean isBlocked(long sender, double threshold, long now) {
+        long key = key(sender);
+        while (true) {
+            long before = version.get();
+            if ((before & 1) != 0) {
+                Thread.onSpinWait(); // A writer is changing the table
+                continue;
+            }
+            boolean blocked = false;
+            if (size > 0) {
+                int slot = find(key);
+                blocked = slot >= 0 && score(slot, now) >= threshold;
+            }
+            VarHandle.acquireFence(); // The reads above must be done before validating
+            if (version.get() == before) {
+                return blocked;
+            }
+        }
+    }
+
+    /**
+     * Raises a sender's score after a rule blocked one of their messages.
+     * @param sender The sender hash
+     * @param now The current time in epoch milliseconds
+     */
+    public synchronized void raise(long sender, long now) {
+        long key = key(sender);
+        beginWrite();
+        int slot = find(key);
+        float score = 0f;
+        if (slot >= 0) {
+            score = score(slot, now);
+        } else {
+            if (size >= MAX_SENDERS) {
+                remove(oldest);
+            }
+            slot = insert(key);
+        }
+        scores[slot] = Math.min(MAX_SCORE, score + 1f);
+        updatedAt[slot] = now;
+        touch(slot);
+        endWrite();
+        dirty = true;
+    }
+
+    /**
+     * Gets a sender's current score.
+     * @param sender The sender hash
+     * @param now The current time in epoch milliseconds
+     * @return The score, 0 for unknown senders
+     */
+    public synchronized float getScore(long sender, long now) {
+        int slot = find(key(sender));
+        return slot >= 0 ? score(slot, now) : 0f;
+    }
+
+    /**
+     * Counts the senders that are currently blocked.
+     * @param threshold The score at which senders are blocked
+     * @param now The current time in epoch milliseconds
+     * @return The number of blocked senders
+     */
+    public synchronized int countBlocked(double threshold, long now) {
+        int count = 0;
+        for (int slot = newest; slot != NONE; slot = older[slot]) {
+            if (score(slot, now) >= threshold) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Forgets all senders.
+     */
+    public synchronized void clear() {
+        beginWrite();
+        Arrays.fill(keys, FREE);
+        newest = NONE;
+        oldest = NONE;
+        size = 0;
+        endWrite();
+        dirty = true;
+    }
+
+    private void beginWrite() {
+        version.incrementAndGet();
+        VarHandle.releaseFence(); // The odd version must be visible before any slot changes
+    }
+
+    private void endWrite() {
+        version.incrementAndGet(); // Publishes the changes
+    }
+
+    private float score(int slot, long now) {
+        long elapsed = Math.max(0, now - updatedAt[slot]);
+        return scores[slot] * (float) Math.exp(-Math.log(2) * elapsed / HALF_LIFE_MILLIS);
+    }
+
+    private static long key(long sender) {
+        return sender == FREE ? 1L : sender;
+    }
+
+    private static int home(long key) {
+        return (int) (key ^ (key >>> 32)) * 0x9E3779B9 & MASK;
+    }
+
+    private int find(long key) {
+        // Bounded, since a lookup racing a writer may see a run that never ends; it is retried anyway
+        int slot = home(key);
+        for (int probes = 0; probes < TABLE_SIZE && keys[slot] != FREE; probes++, slot = (slot + 1) & MASK) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+        }
+        return NONE;
+    }
+
+    private int insert(long key) {
+        int slot = home(key);
+        while (keys[slot] != FREE) {
+            slot = (slot + 1) & MASK;
+        }
+        keys[slot] = key;
+        newer[slot] = NONE;
+        older[slot] = NONE;
+        link(slot);
+        size++;
+        return slot;
+    }
+
+    /**
+     * Removes an entry, shifting back the entries of its probe run so lookups never stop
+     * at the gap. Moved entries keep their place in the usage list.
+     */
+    private void remove(int slot) {
+        unlink(slot);
+        int hole = slot;
+        for (int next = (slot + 1) & MASK; keys[next] != FREE; next = (next + 1) & MASK) {
+            int home = home(keys[next]);
+            // The entry can move back unless its home lies cyclically in (hole, next]
+            boolean stays = hole <= next ? hole < home && home <= next : hole < home || home <= next;
+            if (!stays) {
+                move(next, hole);
+                hole = next;
+            }
+        }
+        keys[hole] = FREE;
+        size--;
+    }
+
+    private void move(int from, int to) {
+        keys[to] = keys[from];
+        scores[to] = scores[from];
+        updatedAt[to] = updatedAt[from];
+        newer[to] = newer[from];
+        older[to] = older[from];
+        if (newer[to] != NONE) {
+            older[newer[to]] = to;
+        } else {
+            newest = to;
+        }
+        if (older[to] != NONE) {
+            newer[older[to]] = to;
+        } else {
+            oldest = to;
+        }
+    }
+
+    /**
+     * Marks an entry as the most recently matched.
+     */
+    private void touch(int slot) {
+        if (slot != newest) {
+            unlink(slot);
+            link(slot);
+        }
+    }
+
+    private void link(int slot) {
+        newer[slot] = NONE;
+        older[slot] = newest;
+        if (newest != NONE) {
+            newer[newest] = slot;
+        }
+        newest = slot;
+        if (oldest == NONE) {
+            oldest = slot;
+        }
+    }
+
+    private void unlink(int slot) {
+        if (newer[slot] != NONE) {
+            older[newer[slot]] = older[slot];
+        } else {
+            newest = older[slot];
+        }
+        if (older[slot] != NONE) {
+            newer[older[slot]] = newer[slot];
+        } else {
+            oldest = newer[slot];
+        }
+        newer[slot] = NONE;
+        older[slot] = NONE;
+    }
+
+    /**
+     * Loads scores saved by {@link #saveIfDirty(Path)}. Time kept passing while the game was
+     * closed, so the scores have decayed accordingly.
+     * @param path The reputation file
+     */
+    public synchronized void load(Path path) {
+        if (!Files.exists(path)) {
+            return;
+        }
+
+        try (InputStream in = Files.newInputStream(path);
+             DataInputStream data = new DataInputStream(new GZIPInputStream(in))) {
+            if (data.readInt() != FILE_MAGIC || data.readInt() != FILE_VERSION) {
+                System.err.println("Ignoring incompatible sender reputation file " + path);
+                return;
+            }
+            clear();
+            long now = System.currentTimeMillis();
+            int entries = data.readInt();
+            for (int i = 0; i < entries; i++) {
+                long key = data.readLong();
+                float score = data.readFloat();
+                long updated = data.readLong();
+                if (size < MAX_SENDERS && find(key(key)) < 0) {
+                    beginWrite();
+                    int slot = insert(key(key)); // Saved oldest first, so the usage order is restored
+                    scores[slot] = Math.min(MAX_SCORE, score);
+                    updatedAt[slot] = Math.min(updated, now);
+                    endWrite();
+                }
+            }
+            dirty = false;
+        } catch (IOException e) {
+            System.err.println("Failed to load sender reputation: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Saves the scores if they changed since they were loaded or last saved.
+     * Senders whose score has decayed away are left out. The file is written aside and moved
+     * into place, so a crash while saving keeps the previous file.
+     * @param path The reputation file
+     */
+    public synchronized void saveIfDirty(Path path) {
+        if (!dirty) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        int entries = 0;
+        for (int slot = oldest; slot != NONE; slot = newer[slot]) {
+            if (score(slot, now) >= MIN_SCORE) {
+                entries++;
+            }
+        }
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp);
+             DataOutputStream data = new DataOutputStream(new GZIPOutputStream(out))) {
+            data.writeInt(FILE_MAGIC);
+            data.writeInt(FILE_VERSION);
+            data.writeInt(entries);
+            for (int slot = oldest; slot != NONE; slot = newer[slot]) {
+                if (score(slot, now) >= MIN_SCORE) {
+                    data.writeLong(keys[slot]);
+                    data.writeFloat(scores[slot]);
+                    data.writeLong(updatedAt[slot]);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to save sender reputation: " + e.getMessage());
+            return;
+        }
+
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            System.err.println("Failed to save sender reputation: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+/**
+ * Locates the sender name in a chat line without creating substrings.
+ * Understands {@code <Name> message} chat and {@code Name whispers: message} whispers.
+ */
+public final class Senders {
+    private static final String WHISPER_MARKER = " whispers: ";
+    private static final int MAX_NAME_LENGTH = 16; // Longest Minecraft username
+
+    private Senders() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Finds the sender name of a chat line.
+     * @param message The message
+     * @return The name range packed as {@code start << 32 | end}, or -1 if there is no sender
+     */
+    public static long findSender(String message) {
+        if (message.startsWith("<")) {
+            int end = message.indexOf('>');
+            if (end > 1 && end <= MAX_NAME_LENGTH + 1 && isName(message, 1, end)) {
+                return (1L << 32) | end;
+            }
+            return -1;
+        }
+
+        int marker = message.indexOf(WHISPER_MARKER);
+        if (marker > 0 && marker <= MAX_NAME_LENGTH && isName(message, 0, marker)) {
+            return marker;
+        }
+        return -1;
+    }
+
+    /**
+     * Hashes the sender name of a chat line.
+     * @param message The message
+     * @param range The range returned by {@link #findSender(String)}
+     * @return The case-insensitive hash of the name
+     */
+    public static long hashSender(String message, long range) {
+        return TextHash.hash(message, (int) (range >>> 32), (int) range);
+    }
+
+    private static boolean isName(String message, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = message.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,198 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Remote list cache shared by the clients running on one machine.
+ * <p>
+ * The client holding {@code refresh.lock} is the leader: it fetches and compiles the remote
+ * list as usual and publishes the compiled set as a {@link RuleSnapshot}. The other clients
+ * never fetch; they load the latest snapshot whenever the counter in the {@code stamp} file changes.
+ * The lock is released by the operating system when the leader exits, and the next client
+ * to refresh takes over.
+ * <p>
+ * Each remote URL gets its own subdirectory, so clients using different lists don't mix.
+ */
+final class SharedRuleCache {
+    private static final String LOCK_FILENAME = "refresh.lock";
+    private static final String STAMP_FILENAME = "stamp";
+    private static final String SNAPSHOT_PREFIX = "rules-";
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    private final Path directory;
+    private FileChannel lockChannel;
+    private FileLock lock;
+    private volatile boolean leader; // Mirrors lock != null for readers that must not wait
+    private long loadedCounter = -1; // Counter of the snapshot this client last published or loaded
+
+    private SharedRuleCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the cache of a remote list.
+     * @param baseDirectory The shared directory configured by the user
+     * @param remoteUrl The URL of the remote list
+     * @return The cache
+     * @throws IOException If the directory can't be created
+     */
+    static SharedRuleCache open(String baseDirectory, String remoteUrl) throws IOException {
+        Path directory = Paths.get(baseDirectory, Integer.toHexString(remoteUrl.hashCode()));
+        Files.createDirectories(directory);
+        return new SharedRuleCache(directory);
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Tries to become the client that fetches for the machine. Non-blocking.
+     * @return true if this client holds the lock
+     */
+    synchronized boolean tryLead() {
+        if (lock != null) {
+            return true;
+        }
+        try {
+            if (lockChannel == null) {
+                lockChannel = FileChannel.open(directory.resolve(LOCK_FILENAME),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            }
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null; // Another cache in this process holds it
+        } catch (IOException e) {
+            System.err.println("Failed to lock shared rule cache: " + e.getMessage());
+        }
+        leader = lock != null;
+        return leader;
+    }
+
+    boolean isLeader() {
+        return leader;
+    }
+
+    /**
+     * Checks whether the leader refreshed recently, so a client that just took the lock
+     * can use the published snapshot instead of fetching again.
+     * @param maxAgeMillis The age up to which the snapshot counts as fresh
+     * @return true if a snapshot was published within that time
+     */
+    boolean isFresh(long maxAgeMillis) {
+        long[] stamp = readStamp();
+        return stamp != null && System.currentTimeMillis() - stamp[1] < maxAgeMillis;
+    }
+
+    /**
+     * Loads the published snapshot if it is newer than the one this client has.
+     * @return The rule set, or null if there is nothing new
+     * @throws IOException If the snapshot can't be read
+     */
+    synchronized RuleSet loadIfNewer() throws IOException {
+        long[] stamp = readStamp();
+        if (stamp == null || stamp[0] == loadedCounter) {
+            return null;
+        }
+        RuleSet rules = RuleSnapshot.read(snapshotPath(stamp[0]));
+        loadedCounter = stamp[0];
+        return rules;
+    }
+
+    /**
+     * Publishes the result of a refresh. Only the leader calls this.
+     * @param rules The current remote rules
+     * @param changed Whether the rules changed since the last publish; an unchanged list only renews the stamp
+     * @throws IOException If the snapshot or stamp can't be written
+     */
+    synchronized void publish(RuleSet rules, boolean changed) throws IOException {
+        long[] stamp = readStamp();
+        long counter = stamp != null ? stamp[0] : 0;
+        if (changed || stamp == null || counter != loadedCounter) {
+            counter++;
+            Path temp = directory.resolve(SNAPSHOT_PREFIX + counter + SNAPSHOT_SUFFIX + ".tmp");
+            RuleSnapshot.write(temp, rules);
+            Files.move(temp, snapshotPath(counter), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        writeStamp(counter);
+        loadedCounter = counter;
+        deleteOldSnapshots(counter);
+    }
+
+    /**
+     * Releases the lock so another client can lead.
+     */
+    synchronized void close() {
+        try {
+            if (lockChannel != null) {
+                lockChannel.close(); // Also releases the lock
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to release shared rule cache: " + e.getMessage());
+        }
+        lockChannel = null;
+        lock = null;
+        leader = false;
+    }
+
+    private Path snapshotPath(long counter) {
+        return directory.resolve(SNAPSHOT_PREFIX + counter + SNAPSHOT_SUFFIX);
+    }
+
+    /**
+     * Reads the stamp: the counter of the latest snapshot and when the leader last refreshed.
+     * @return {counter, refreshedAtMillis}, or null if nothing was published yet
+     */
+    private long[] readStamp() {
+        try {
+            List<String> lines = Files.readAllLines(directory.resolve(STAMP_FILENAME));
+            if (lines.size() < 2) {
+                return null;
+            }
+            return new long[]{Long.parseLong(lines.get(0).trim()), Long.parseLong(lines.get(1).trim())};
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void writeStamp(long counter) throws IOException {
+        // Written aside and moved so readers never see half a stamp
+        Path temp = directory.resolve(STAMP_FILENAME + ".tmp");
+        Files.writeString(temp, counter + "\n" + System.currentTimeMillis() + "\n", StandardCharsets.UTF_8);
+        Files.move(temp, directory.resolve(STAMP_FILENAME), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes snapshots older than the previous one. The previous one is kept for clients
+     * that read the stamp just before it changed. Files still mapped elsewhere may fail
+     * to delete on some systems and are retried on the next publish.
+     */
+    private void deleteOldSnapshots(long counter) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    long fileCounter = Long.parseLong(name.substring(SNAPSHOT_PREFIX.length(), name.length() - SNAPSHOT_SUFFIX.length()));
+                    if (fileCounter < counter - 1) {
+                        Files.deleteIfExists(file);
+                    }
+                } catch (NumberFormatException | IOException ignored) {
+                    // Not ours, or still in use
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to clean shared rule cache: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Online logistic regression over hashed word and character trigram features.
+ * <p>
+ * Features are hashed into a fixed-size weight array while scanning the message once,
+ * so classifying costs time linear in the message length and allocates nothing.
+ * Text is folded to lowercase ASCII letters and digits; everything else separates words.
+ */
+public class SpamClassifier {
+    private static final int FEATURE_BITS = 18; // 256k weights, 1 MiB
+    private static final int FEATURE_MASK = (1 << FEATURE_BITS) - 1;
+    private static final float LEARNING_RATE = 0.1f;
+    private static final int MIN_EXAMPLES = 50; // Per class, before the classifier blocks anything
+
+    private static final int FILE_MAGIC = 0x41425343; // "ABSC"
+    private static final int FILE_VERSION = 1;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long TRIGRAM_SEED = 0x9E3779B97F4A7C15L;
+
+    private final float[] weights = new float[1 << FEATURE_BITS];
+    private float bias;
+    private long spamExamples;
+    private long hamExamples;
+    private boolean dirty;
+
+    // Scratch results of the last feature scan, kept in fields to avoid allocation
+    private float scanSum;
+    private int scanCount;
+
+    /**
+     * Checks if enough spam and ham examples have been seen for predictions to be meaningful.
+     * @return true if the classifier is trained
+     */
+    public boolean isTrained() {
+        return spamExamples >= MIN_EXAMPLES && hamExamples >= MIN_EXAMPLES;
+    }
+
+    /**
+     * Estimates the probability that a message is spam.
+     * @param message The message to classify
+     * @return The spam probability between 0 and 1
+     */
+    public synchronized float spamProbability(String message) {
+        scan(message, 0f);
+        return sigmoid(score());
+    }
+
+    /**
+     * Trains the classifier with a labelled message.
+     * @param message The message
+     * @param spam true if the message is spam, false if it is ham
+     */
+    public synchronized void train(String message, boolean spam) {
+        scan(message, 0f);
+        if (scanCount == 0) {
+            return;
+        }
+
+        float gradient = ((spam ? 1f : 0f) - sigmoid(score())) * LEARNING_RATE;
+        scan(message, gradient / (float) Math.sqrt(scanCount));
+        bias += gradient;
+
+        if (spam) {
+            spamExamples++;
+        } else {
+            hamExamples++;
+        }
+        dirty = true;
+    }
+
+    public synchronized long getSpamExamples() {
+        return spamExamples;
+    }
+
+    public synchronized long getHamExamples() {
+        return hamExamples;
+    }
+
+    private float score() {
+        return scanCount == 0 ? bias : bias + scanSum / (float) Math.sqrt(scanCount);
+    }
+
+    /**
+     * Visits every feature of a message, summing their weights and adding an update to each.
+     * Words and character trigrams are hashed incrementally, so no substrings are created.
+     */
+    private void scan(String message, float update) {
+        float sum = 0f;
+        int count = 0;
+
+        long wordHash = FNV_OFFSET;
+        int wordLength = 0;
+        int trigram = 0; // Last three folded characters, 8 bits each
+        int trigramLength = 0;
+
+        int length = message.length();
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? fold(message.charAt(i)) : ' ';
+
+            if (c != ' ') {
+                wordHash = (wordHash ^ c) * FNV_PRIME;
+                wordLength++;
+            } else if (wordLength > 0) {
+                int index = (int) (wordHash ^ (wordHash >>> 32)) & FEATURE_MASK;
+                sum += weights[index];
+                weights[index] += update;
+                count++;
+                wordHash = FNV_OFFSET;
+                wordLength = 0;
+            }
+
+            // Collapse runs of separators into a single space so "b  u y" and "b u y" match
+            if (c == ' ' && trigramLength > 0 && (trigram & 0xFF) == ' ') {
+                continue;
+            }
+            trigram = ((trigram << 8) | c) & 0xFFFFFF;
+            if (++trigramLength >= 3) {
+                long hash = (trigram + TRIGRAM_SEED) * FNV_PRIME;
+                int index = (int) (hash ^ (hash >>> 29)) & FEATURE_MASK;
+                sum += weights[index];
+                weights[index] += update;
+                count++;
+            }
+        }
+
+        scanSum = sum;
+        scanCount = count;
+    }
+
+    private static char fold(char c) {
+        if (c >= 'a' && c <= 'z' || c >= '0' && c <= '9') {
+            return c;
+        }
+        if (c >= 'A' && c <= 'Z') {
+            return (char) (c + ('a' - 'A'));
+        }
+        return ' ';
+    }
+
+    private static float sigmoid(float x) {
+        return 1f / (1f + (float) Math.exp(-x));
+    }
+
+    /**
+     * Loads a model saved by {@link #save(Path)}. A missing or unreadable file leaves the model untrained.
+     * @param path The model file
+     */
+    public synchronized void load(Path path) {
+        if (!Files.exists(path)) {
+            return;
+        }
+
+        try (InputStream in = Files.newInputStream(path);
+             DataInputStream data = new DataInputStream(new GZIPInputStream(in))) {
+            if (data.readInt() != FILE_MAGIC || data.readInt() != FILE_VERSION || data.readInt() != FEATURE_BITS) {
+                System.err.println("Ignoring incompatible spam classifier model " + path);
+                return;
+            }
+            spamExamples = data.readLong();
+            hamExamples = data.readLong();
+            bias = data.readFloat();
+
+            // Only non-zero weights are stored
+            int entries = data.readInt();
+            for (int i = 0; i < entries; i++) {
+                weights[data.readInt() & FEATURE_MASK] = data.readFloat();
+            }
+            dirty = false;
+        } catch (IOException e) {
+            System.err.println("Failed to load spam classifier model: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Saves the model if it changed since it was loaded or last saved. The file is written
+     * aside and moved into place, so a crash while saving keeps the previous model.
+     * @param path The model file
+     */
+    public synchronized void saveIfDirty(Path path) {
+        if (!dirty) {
+            return;
+        }
+
+        int entries = 0;
+        for (float weight : weights) {
+            if (weight != 0f) {
+                entries++;
+            }
+        }
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp);
+             DataOutputStream data = new DataOutputStream(new GZIPOutputStream(out))) {
+            data.writeInt(FILE_MAGIC);
+            data.writeInt(FILE_VERSION);
+            data.writeInt(FEATURE_BITS);
+            data.writeLong(spamExamples);
+            data.writeLong(hamExamples);
+            data.writeFloat(bias);
+            data.writeInt(entries);
+            for (int i = 0; i < weights.length; i++) {
+                if (weights[i] != 0f) {
+                    data.writeInt(i);
+                    data.writeFloat(weights[i]);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to save spam classifier model: " + e.getMessage());
+            return;
+        }
+
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            System.err.println("Failed to save spam classifier model: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable store of strings interned into one UTF-8 byte array.
+ * Equal strings are stored once, and each costs its bytes plus an offset instead of
+ * a {@link String} object with its own backing array. Strings are decoded again on access,
+ * so the arena suits text that is kept for long but read rarely, like rule and list lines.
+ */
+public final class TextArena {
+    public static final TextArena EMPTY = new Builder(0).build();
+
+    private final byte[] bytes;
+    private final int[] offsets; // Start of each string, with the end of the last one appended
+
+    private TextArena(byte[] bytes, int[] offsets) {
+        this.bytes = bytes;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Stores lines in a new arena.
+     * @param lines The lines
+     * @return A read-only list decoding the lines from the arena
+     */
+    public static List<String> compact(List<String> lines) {
+        Builder builder = new Builder(lines.size());
+        int[] lineIds = new int[lines.size()];
+        for (int i = 0; i < lineIds.length; i++) {
+            lineIds[i] = builder.intern(lines.get(i));
+        }
+        return new Lines(builder.build(), lineIds);
+    }
+
+    /**
+     * Estimates the heap used by a list returned by {@link #compact(List)}.
+     * @param lines The list
+     * @return The estimated bytes, or 0 if the list isn't arena backed
+     */
+    public static long memoryUsage(List<String> lines) {
+        return lines instanceof Lines compact ? compact.arena.memoryUsage() + compact.ids.length * 4L : 0;
+    }
+
+    /**
+     * Decodes a string.
+     * @param id The id returned when the string was interned
+     * @return The string
+     */
+    public String get(int id) {
+        return new String(bytes, offsets[id], offsets[id + 1] - offsets[id], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the encoded length of a string, without decoding it.
+     * @param id The id of the string
+     * @return The length in UTF-8 bytes
+     */
+    public int byteLength(int id) {
+        return offsets[id + 1] - offsets[id];
+    }
+
+    /**
+     * Compares a string with UTF-8 encoded text, without decoding it.
+     * @param id The id of the string
+     * @param encoded The encoded text
+     * @return true if the string is the text
+     */
+    public boolean contentEquals(int id, byte[] encoded) {
+        return Arrays.equals(bytes, offsets[id], offsets[id + 1], encoded, 0, encoded.length);
+    }
+
+    /**
+     * Copies the arena with strings added at the end. The new strings are not interned
+     * against the existing ones, so the copy costs little more than the bytes it moves.
+     * @param texts The strings to add
+     * @return The new arena, in which the added strings have the ids following {@link #size()}
+     */
+    public TextArena append(List<String> texts) {
+        byte[][] encoded = new byte[texts.size()][];
+        int length = bytes.length;
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = texts.get(i).getBytes(StandardCharsets.UTF_8);
+            length += encoded[i].length;
+        }
+
+        byte[] newBytes = Arrays.copyOf(bytes, length);
+        int[] newOffsets = Arrays.copyOf(offsets, offsets.length + encoded.length);
+        int end = bytes.length;
+        for (int i = 0; i < encoded.length; i++) {
+            System.arraycopy(encoded[i], 0, newBytes, end, encoded[i].length);
+            end += encoded[i].length;
+            newOffsets[offsets.length + i] = end;
+        }
+        return new TextArena(newBytes, newOffsets);
+    }
+
+    /**
+     * Gets the number of stored strings.
+     * @return The number of strings
+     */
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * Estimates the heap used by the arena.
+     * @return The estimated bytes
+     */
+    public long memoryUsage() {
+        return bytes.length + offsets.length * 4L;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        RuleSnapshot.writeBytes(out, bytes);
+        RuleSnapshot.writeInts(out, offsets);
+    }
+
+    static TextArena read(ByteBuffer in) {
+        return new TextArena(RuleSnapshot.readBytes(in), RuleSnapshot.readInts(in));
+    }
+
+    /**
+     * Interns strings and freezes them into an arena.
+     * Only the builder keeps the index used to find equal strings.
+     */
+    public static final class Builder {
+        private byte[] bytes;
+        private int[] offsets;
+        private final LongIntHashMap ids; // Key of a string to the first id stored with that key
+        private int length;
+        private int count;
+
+        /**
+         * Creates a builder.
+         * @param expectedSize The expected number of strings
+         */
+        public Builder(int expectedSize) {
+            this.bytes = new byte[Math.max(16, expectedSize * 16)];
+            this.offsets = new int[expectedSize + 1];
+            this.ids = new LongIntHashMap(expectedSize);
+        }
+
+        /**
+         * Stores a string unless an equal one is already stored.
+         * @param text The string
+         * @return The id of the string
+         */
+        public int intern(String text) {
+            long key = key(text);
+            int existing = ids.get(key);
+            if (existing != LongIntHashMap.MISSING && decode(existing).equals(text)) {
+                return existing;
+            }
+
+            byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+            if (length + encoded.length > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + encoded.length));
+            }
+            if (count + 2 > offsets.length) {
+                offsets = Arrays.copyOf(offsets, Math.max(offsets.length * 2, count + 2));
+            }
+            System.arraycopy(encoded, 0, bytes, length, encoded.length);
+            offsets[count] = length;
+            length += encoded.length;
+            offsets[count + 1] = length;
+            if (existing == LongIntHashMap.MISSING) {
+                ids.putIfAbsent(key, count); // On a key collision only the first string is found again
+            }
+            return count++;
+        }
+
+        private String decode(int id) {
+            return new String(bytes, offsets[id], offsets[id + 1] - offsets[id], StandardCharsets.UTF_8);
+        }
+
+        public TextArena build() {
+            return new TextArena(Arrays.copyOf(bytes, length), Arrays.copyOf(offsets, count + 1));
+        }
+
+        private static long key(String text) {
+            // Case-sensitive, unlike TextHash; interned strings must be equal, not just alike
+            return ((long) text.hashCode() << 32) ^ text.length();
+        }
+    }
+
+    /**
+     * List view of lines stored in an arena.
+     */
+    private static final class Lines extends AbstractList<String> implements RandomAccess {
+        private final TextArena arena;
+        private final int[] ids;
+
+        private Lines(TextArena arena, int[] ids) {
+            this.arena = arena;
+            this.ids = ids;
+        }
+
+        @Override
+        public String get(int index) {
+            return arena.get(ids[index]);
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+/**
+ * 64-bit FNV-1a hashing of text with ASCII case folding, matching how rules ignore case.
+ * Hashes can be computed over a range of a string or built up one character at a time,
+ * so callers never need to create substrings.
+ */
+public final class TextHash {
+    /** Hash of the empty string, the starting value for {@link #update(long, char)}. */
+    public static final long EMPTY = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    private TextHash() {
+        // Private constructor to prevent instantiation
+    }
+
+    /**
+     * Extends a hash by one character.
+     * @param hash The hash so far
+     * @param c The next character
+     * @return The extended hash
+     */
+    public static long update(long hash, char c) {
+        return (hash ^ fold(c)) * PRIME;
+    }
+
+    /**
+     * Hashes a whole string.
+     * @param text The text
+     * @return The hash
+     */
+    public static long hash(String text) {
+        return hash(text, 0, text.length());
+    }
+
+    /**
+     * Hashes a range of a string.
+     * @param text The text
+     * @param start The first character, inclusive
+     * @param end The last character, exclusive
+     * @return The hash
+     */
+    public static long hash(String text, int start, int end) {
+        long hash = EMPTY;
+        for (int i = start; i < end; i++) {
+            hash = update(hash, text.charAt(i));
+        }
+        return hash;
+    }
+
+    /**
+     * Lowercases ASCII letters, leaving every other character unchanged.
+     * @param c The character
+     * @return The folded character
+     */
+    public static char fold(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+}
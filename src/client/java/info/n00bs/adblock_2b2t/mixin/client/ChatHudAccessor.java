@@ -0,0 +1,23 @@
+package info.n00bs.adblock_2b2t.mixin.client;
+
+import net.minecraft.client.gui.hud.ChatHud;
+import net.minecraft.client.gui.hud.ChatHudLine;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.gen.Accessor;
+
+import java.util.List;
+
+/**
+ * Accessor for the chat history kept by the chat HUD.
+ */
+@Mixin(ChatHud.class)
+public interface ChatHudAccessor {
+
+    /**
+     * Gets the chat history, newest message first.
+     * 
+     * @return The mutable list of chat lines
+     */
+    @Accessor("messages")
+    List<ChatHudLine> getMessages();
+}
@@ -1,19 +1,24 @@
 package info.n00bs.adblock_2b2t.mixin.client;
 
+import info.n00bs.adblock_2b2t.client.chat.BlockedMessageNotice;
+import info.n00bs.adblock_2b2t.client.chat.MessageKinds;
+import info.n00bs.adblock_2b2t.client.chat.MessageLinks;
+import info.n00bs.adblock_2b2t.client.chat.PacketFilter;
 import info.n00bs.adblock_2b2t.client.config.FilterConfig;
+import info.n00bs.adblock_2b2t.client.filter.FilterRule;
 import info.n00bs.adblock_2b2t.client.filter.MessageFilter;
+import info.n00bs.adblock_2b2t.client.filter.MessageKind;
 import net.minecraft.client.gui.hud.ChatHud;
 import net.minecraft.client.gui.hud.MessageIndicator;
 import net.minecraft.network.message.MessageSignatureData;
-import net.minecraft.text.HoverEvent;
-import net.minecraft.text.Style;
 import net.minecraft.text.Text;
-import net.minecraft.util.Formatting;
 import org.spongepowered.asm.mixin.Mixin;
 import org.spongepowered.asm.mixin.injection.At;
 import org.spongepowered.asm.mixin.injection.Inject;
 import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
 
+import java.util.List;
+
 /**
  * Mixin to intercept and filter chat messages.
  */
@@ -35,32 +40,27 @@ public class ChatMessageMixin {
         // Convert the Text to a string
         String messageString = message.getString();
 
+        // Already checked when its packet arrived, only the verdict is left to record
+        if (PacketFilter.wasPassed(messageString)) {
+            MessageFilter.getInstance().recordVerdict(messageString, null, null);
+            return;
+        }
+
+        // Only rules scoped to this kind of message are evaluated
+        MessageKind kind = MessageKinds.classify(message, messageString, signature, indicator);
+
+        // Link targets are checked against the domain rules along with the text
+        List<String> links = MessageLinks.collect(message);
+
         // Check if the message should be filtered
-        if (MessageFilter.getInstance().shouldFilterMessage(messageString)) {
+        FilterRule rule = MessageFilter.getInstance().filterMessage(messageString, kind, links);
+        if (rule != null) {
             // Get the filter configuration
             FilterConfig config = FilterConfig.getInstance();
 
             // If debug mode is enabled, show a notification with the blocked message on hover
             if (config.isDebugMode()) {
-                // Get the filter type that matched this message
-                String filterType = MessageFilter.getInstance().getMatchingFilterType(messageString);
-                String filterName = filterType != null ? 
-                    (filterType.equals("CUSTOM") ? "Custom Filter" : "Remote Filter") : 
-                    "Unknown Filter";
-
-                // Create a hover event with the original message
-                HoverEvent hoverEvent = new HoverEvent(
-                    HoverEvent.Action.SHOW_TEXT, 
-                    Text.literal("Filter: " + filterName + "\n").formatted(Formatting.GOLD)
-                        .append(Text.literal("expression: " + MessageFilter.getInstance().getMatchingPattern(messageString) + "\n").formatted(Formatting.GOLD))
-                        .append(Text.literal("Blocked message: ").formatted(Formatting.RED))
-                        .append(Text.literal(messageString).formatted(Formatting.WHITE))
-                );
-
-                // Create the debug message with hover effect
-                Text debugMessage = Text.literal("[AdBlock] ").formatted(Formatting.DARK_RED)
-                    .append(Text.literal("Message blocked").formatted(Formatting.RED))
-                    .setStyle(Style.EMPTY.withHoverEvent(hoverEvent));
+                Text debugMessage = BlockedMessageNotice.create(rule, kind, messageString);
 
                 // Replace the original message with our debug message
                 ((ChatHud)(Object)this).addMessage(debugMessage, null, null);
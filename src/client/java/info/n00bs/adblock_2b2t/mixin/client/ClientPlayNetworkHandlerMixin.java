@@ -0,0 +1,46 @@
+package info.n00bs.adblock_2b2t.mixin.client;
+
+import info.n00bs.adblock_2b2t.client.chat.PacketFilter;
+import net.minecraft.client.network.ClientPlayNetworkHandler;
+import net.minecraft.network.packet.s2c.play.GameMessageS2CPacket;
+import net.minecraft.network.packet.s2c.play.ProfilelessChatMessageS2CPacket;
+import org.spongepowered.asm.mixin.Mixin;
+import org.spongepowered.asm.mixin.injection.At;
+import org.spongepowered.asm.mixin.injection.Inject;
+import org.spongepowered.asm.mixin.injection.callback.CallbackInfo;
+
+/**
+ * Mixin to drop blocked messages as soon as their packet arrives.
+ * Messages that get through are still checked by {@link ChatMessageMixin}.
+ */
+@Mixin(ClientPlayNetworkHandler.class)
+public class ClientPlayNetworkHandlerMixin {
+
+    /**
+     * Injects into the game message handler, before the packet is moved to the main thread.
+     *
+     * @param packet The game message packet
+     * @param ci The callback info
+     */
+    @Inject(method = "onGameMessage", at = @At("HEAD"), cancellable = true)
+    private void onGameMessage(GameMessageS2CPacket packet, CallbackInfo ci) {
+        // Action bar messages are not shown in chat
+        if (!packet.overlay() && PacketFilter.shouldDrop(packet.content())) {
+            ci.cancel();
+        }
+    }
+
+    /**
+     * Injects into the unsigned player chat handler, before the packet is moved to the main thread.
+     *
+     * @param packet The chat message packet
+     * @param ci The callback info
+     */
+    @Inject(method = "onProfilelessChatMessage", at = @At("HEAD"), cancellable = true)
+    private void onProfilelessChatMessage(ProfilelessChatMessageS2CPacket packet, CallbackInfo ci) {
+        // Decorated the same way the chat shows it, so sender rules and allow entries apply
+        if (PacketFilter.shouldDrop(packet.chatType().applyChatDecoration(packet.message()))) {
+            ci.cancel();
+        }
+    }
+}
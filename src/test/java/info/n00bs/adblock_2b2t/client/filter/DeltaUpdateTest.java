@@ -0,0 +1,149 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+import info.n00bs.adblock_2b2t.client.config.FilterCategory;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks the delta update file layout, and the refresh of {@link MessageFilter} against a
+ * {@link StandInServer} publishing {@code .version} and {@code .diff} files next to a list.
+ */
+class DeltaUpdateTest {
+    private static final String LIST_PATH = "/lists/filter.txt";
+    private static final String DIFF_PATH = "/lists/filter.1-2.diff";
+
+    private static final int FILLER_RULES = 40; // Keeps the diff small enough to be applied to the compiled rules
+
+    private static final List<String> VERSION_1 = version1();
+    private static final List<String> DIFF = List.of(
+            "-@word:spawn", "-best\\.gg", "+@domain:kits.cc", "+@whisper,word:coords", "+elytra\\s*store", "+@word:spawn");
+    private static final List<String> MESSAGES = List.of(
+            "<Steve> buy   kits at shop.gg", "spawn base", "best.gg", "visit kits (.) cc", "my coords are 1 2",
+            "ELYTRA STORE", "elytrastore", "join now", "cheap dupe", "free items today", "nothing to see");
+
+    @BeforeAll
+    static void initializeFilter() {
+        StandInServer.initializeFilter();
+    }
+
+    @Test
+    void applyDiffDropsFirstEqualLinesAndAppends() {
+        List<String> lines = List.of("a", "b", "a", "c");
+        List<String> diff = List.of("-a", "+d", "# comment", "", "-c", "+a");
+        assertEquals(List.of("b", "a", "d", "a"), DeltaUpdate.applyDiff(lines, diff));
+    }
+
+    @Test
+    void applyDiffRejectsLinesThatArentThere() {
+        List<String> lines = List.of("a", "a", "b");
+        assertNull(DeltaUpdate.applyDiff(lines, List.of("-c")), "removed a missing line");
+        assertNull(DeltaUpdate.applyDiff(lines, List.of("-a", "-a", "-a")), "removed a line more often than it occurs");
+    }
+
+    @Test
+    void diffUrlsOnlyReplaceTheFileExtension() {
+        assertEquals("https://lists.example.gg/filter.version", DeltaUpdate.versionUrl("https://lists.example.gg/filter.txt"));
+        assertEquals("https://lists.example.gg/filter.3-4.diff", DeltaUpdate.diffUrl("https://lists.example.gg/filter.txt?key=1", "3", "4"));
+        assertEquals("https://lists.example.gg/v1.2/filter.version", DeltaUpdate.versionUrl("https://lists.example.gg/v1.2/filter"));
+        assertEquals("https://lists.example.gg/.version", DeltaUpdate.versionUrl("https://lists.example.gg"));
+    }
+
+    @Test
+    void refreshAppliesPublishedDiff() throws IOException {
+        try (StandInServer server = new StandInServer()) {
+            List<String> version2 = loadVersion1(server);
+            server.serveDiff(LIST_PATH, "1", "2", DIFF);
+            server.publish(LIST_PATH, "2", version2);
+
+            int ruleSetVersion = MessageFilter.getInstance().getRuleSetVersion();
+            MessageFilter.getInstance().refreshFilters().join();
+            List<String> requests = server.takeRequests();
+            assertTrue(requests.contains(DIFF_PATH), "the diff was not requested: " + requests);
+            assertFalse(requests.contains(LIST_PATH), "the list was downloaded again: " + requests);
+            assertTrue(MessageFilter.getInstance().getRuleSetVersion() > ruleSetVersion, "the updated rules were not swapped in");
+            assertMatchesList(version2);
+        }
+    }
+
+    @Test
+    void refreshDownloadsListWhenDiffResultDoesntVerify() throws IOException {
+        try (StandInServer server = new StandInServer()) {
+            List<String> version2 = loadVersion1(server);
+            // The published list has one more line than the diff produces
+            version2.add("@chat:store");
+            server.serveDiff(LIST_PATH, "1", "2", DIFF);
+            server.publish(LIST_PATH, "2", version2);
+
+            MessageFilter.getInstance().refreshFilters().join();
+            List<String> requests = server.takeRequests();
+            assertTrue(requests.indexOf(DIFF_PATH) >= 0 && requests.indexOf(LIST_PATH) > requests.indexOf(DIFF_PATH),
+                    "expected the diff, then the list: " + requests);
+            assertMatchesList(version2);
+        }
+    }
+
+    @Test
+    void refreshDownloadsListWhenDiffRemovesMissingLine() throws IOException {
+        try (StandInServer server = new StandInServer()) {
+            List<String> version2 = loadVersion1(server);
+            List<String> diff = new ArrayList<>(DIFF);
+            diff.add("-@chat:never listed");
+            server.serveDiff(LIST_PATH, "1", "2", diff);
+            server.publish(LIST_PATH, "2", version2);
+
+            MessageFilter.getInstance().refreshFilters().join();
+            List<String> requests = server.takeRequests();
+            assertTrue(requests.indexOf(DIFF_PATH) >= 0 && requests.indexOf(LIST_PATH) > requests.indexOf(DIFF_PATH),
+                    "expected the diff, then the list: " + requests);
+            assertMatchesList(version2);
+        }
+    }
+
+    private static List<String> version1() {
+        List<String> lines = new ArrayList<>(List.of(
+                "# stand-in list", "buy\\s+kits", "@chat:cheap dupe", "@word:spawn", "@domain:shop.gg",
+                "@whisper:free items", "@system,exact:join now", "best\\.gg", "@chat:buy now"));
+        for (int i = 0; i < FILLER_RULES; i++) {
+            lines.add("@exact:filler rule " + i);
+        }
+        return lines;
+    }
+
+    /**
+     * Publishes version 1, has the filter download it and returns the list of version 2.
+     */
+    private static List<String> loadVersion1(StandInServer server) {
+        server.publish(LIST_PATH, "1", VERSION_1);
+        server.useList(LIST_PATH);
+        MessageFilter.getInstance().refreshFilters().join();
+        List<String> requests = server.takeRequests();
+        assertTrue(requests.contains(LIST_PATH), "version 1 was not downloaded: " + requests);
+        assertMatchesList(VERSION_1);
+        return new ArrayList<>(DeltaUpdate.applyDiff(VERSION_1, DIFF));
+    }
+
+    /**
+     * Checks the loaded remote rules give the verdicts of the list compiled from scratch.
+     */
+    private static void assertMatchesList(List<String> lines) {
+        RuleSet expected = RuleSet.compile(FilterCategory.REMOTE_FILTERS_TYPE, lines, RuleSet.EMPTY);
+        for (MessageKind kind : MessageKind.values()) {
+            assertEquals(expected.count(kind), MessageFilter.getInstance().getRuleCount(kind), "rule count for " + kind);
+        }
+        for (String message : MESSAGES) {
+            for (MessageKind kind : MessageKind.values()) {
+                FilterRule rule = MessageFilter.getInstance().getMatchingRule(message, kind);
+                assertEquals(expected.findMatch(message, kind) != null, rule != null, "verdict for " + kind + " \"" + message + "\"");
+            }
+        }
+    }
+}
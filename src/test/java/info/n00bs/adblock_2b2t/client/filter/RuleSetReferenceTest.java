@@ -0,0 +1,683 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+import info.n00bs.adblock_2b2t.client.config.FilterCategory;
+import info.n00bs.adblock_2b2t.client.config.FilterConfig;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks compiled rule sets against the matcher they replaced: every list line compiled with
+ * {@code Pattern.compile(line, Pattern.CASE_INSENSITIVE)} and tried in order with {@code find()}.
+ * <p>
+ * The reference reads the raw lines itself and shares no code with {@link FilterRule}, so bugs in
+ * option parsing or literal promotion show up as divergences. It only strips a valid option prefix
+ * to apply the scope. Typed rules, which the old matcher didn't know, become the regex their type
+ * describes in {@link RuleType}; domain rules are also tried with obfuscated dots replaced.
+ * <p>
+ * Lists come from a seeded generator and from the sample corpus in the test resources. The
+ * concurrent tests load them through {@link MessageFilter#refreshFilters()} from a {@link StandInServer}.
+ */
+class RuleSetReferenceTest {
+    private static final long[] SEEDS = {1L, 42L, 0x2b2bL, 20241018L, -7L};
+    private static final int GENERATED_ROUNDS = 8;
+    private static final int GENERATED_RULES = 250;
+    private static final int GENERATED_MESSAGES = 300;
+    private static final int DELTA_STEPS = 12;
+    private static final int STRESS_LISTS = 3;
+    private static final String LIST_PATH = "/filter.txt";
+    private static final long STRESS_MILLIS = 2000;
+    private static final int MAX_EXAMPLES = 5;
+
+    private static final String[] WORDS = {
+            "buy", "cheap", "kits", "dupe", "spawn", "base", "coords", "shop", "free", "items",
+            "sale", "discord", "queue", "priority", "join", "now", "best", "gg", "store", "elytra"
+    };
+    private static final String[] TLDS = {"gg", "cc", "com", "net", "shop", "xyz"};
+    private static final String[] DOTS = {".", " . ", "(.)", "[.]", "{dot}", " dot ", "\u3002", ". "};
+    private static final String[] SEPARATORS = {" ", " ", " ", ", ", "! ", "_", "-", "  ", ": ", "/"};
+    private static final String[] REGEX_TEMPLATES = {
+            "buy\\s+%s", "%s\\.(gg|cc)", "(cheap|free)\\s*%s", "^%s", "%s$", "[0-9]{2,}\\s*%s",
+            "\\b%s\\b", "%s.{0,10}kits", "(?:www\\.)?%s", "%s|%s2", "\\w+%s", "%s(?!now)", "%s\\!"
+    };
+
+    // Lines whose prefix or expression is easy to misparse
+    private static final List<String> EDGE_CASE_RULES = List.of(
+            "@chat:buy now", "@CHAT,Word:kits", "@whisper, system :coords", "@word,exact:dupe",
+            "@foo:spawn", "@:base", "@chat:", "@word:", "@domain:*.", "@word:buy now", "@word:free!",
+            "@domain:*.shop.gg", "@domain: Cheap.GG ", "@domain:not a domain", "@system,domain:store.net",
+            "@exact:50% off", "@exact:Caf\u00e9", "@exact:a.b*c", "buy\\.gg", "\\$\\$\\$", "\\[ad\\]",
+            "free\\s+kits", "dupe|spawn", "^\\[AD\\]", "queue\\d+", "broken(regex", "a\\", "x{2,",
+            "@chat,system:priority queue", "@regex:elytra", "@chat,regex:best\\.gg", "# @chat:best"
+    );
+    private static final List<String> EDGE_CASE_MESSAGES = List.of(
+            "<Steve> buy now", "<Steve> BUY NOW at shop.gg", "kits kits", "kitsune", "@word,exact:dupe",
+            "@foo:spawn", "@:base", "a.shop.gg", "ashop.gg", "shop.gg.com", "shop.gg.", "cheap.gg",
+            "cheap (.) gg", "cheap dot gg", "cheapdotgg", "not a domain", "store[.]net", "50% OFF today",
+            "caf\u00e9", "CAF\u00c9", "a.b*c", "abbc", "buy.gg", "buyxgg", "$$$", "[AD] free   kits",
+            "[ad]", "queue12", "free! now", "free", "Priority Queue", "elytra", "best.gg", "bestxgg"
+    );
+
+    @BeforeAll
+    static void initializeFilter() {
+        StandInServer.initializeFilter();
+    }
+
+    @Test
+    void generatedListsMatchReference() {
+        for (long seed : SEEDS) {
+            Failures failures = new Failures(seed);
+            Random random = new Random(seed);
+            for (int round = 0; round < GENERATED_ROUNDS; round++) {
+                List<String> lines = generateRules(random, GENERATED_RULES, round % 4 == 0);
+                RuleSet rules = RuleSet.compile(FilterCategory.CUSTOM_FILTERS_TYPE, lines, RuleSet.EMPTY);
+                Reference reference = Reference.parse(lines);
+                for (int i = 0; i < GENERATED_MESSAGES; i++) {
+                    compare(rules, reference, generateMessage(random, lines), failures);
+                }
+            }
+            failures.assertNone();
+        }
+    }
+
+    @Test
+    void edgeCaseRulesMatchReference() {
+        Failures failures = new Failures(0);
+        Random random = new Random(0);
+        RuleSet rules = RuleSet.compile(FilterCategory.REMOTE_FILTERS_TYPE, EDGE_CASE_RULES, RuleSet.EMPTY);
+        Reference reference = Reference.parse(EDGE_CASE_RULES);
+        for (String message : EDGE_CASE_MESSAGES) {
+            compare(rules, reference, message, failures);
+        }
+        for (int i = 0; i < GENERATED_MESSAGES; i++) {
+            compare(rules, reference, generateMessage(random, EDGE_CASE_RULES), failures);
+        }
+        failures.assertNone();
+    }
+
+    /**
+     * Applies a chain of diffs to the compiled rules, the way a delta update does, and checks every
+     * step against the reference of the whole updated list. Every other step goes through a snapshot,
+     * so the removed and added rules also survive being written and read.
+     */
+    @Test
+    void deltaUpdatesMatchReference() throws IOException {
+        Path snapshot = Files.createTempFile("rules", ".bin");
+        try {
+            for (long seed : SEEDS) {
+                Failures failures = new Failures(seed);
+                Random random = new Random(seed);
+                List<String> lines = generateRules(random, GENERATED_RULES, seed < 0);
+                RuleSet rules = RuleSet.compile(FilterCategory.REMOTE_FILTERS_TYPE, lines, RuleSet.EMPTY);
+                for (int step = 0; step < DELTA_STEPS; step++) {
+                    // Removes lines that are there, sometimes a line twice, and adds new and repeated ones
+                    List<String> removed = new ArrayList<>();
+                    List<String> remaining = new ArrayList<>(lines);
+                    for (int i = random.nextInt(6); i > 0 && !remaining.isEmpty(); i--) {
+                        removed.add(remaining.remove(random.nextInt(remaining.size())));
+                    }
+                    List<String> added = generateRules(random, random.nextInt(8), false);
+                    added.add(lines.get(random.nextInt(lines.size())));
+                    DeltaUpdate.Diff diff = new DeltaUpdate.Diff(removed, added);
+
+                    lines = DeltaUpdate.applyDiff(lines, diff);
+                    rules = RuleSet.update(rules, diff.removed(), diff.added(), lines);
+                    if (step % 2 == 1) {
+                        RuleSnapshot.write(snapshot, rules);
+                        rules = RuleSnapshot.read(snapshot);
+                    }
+
+                    RuleSet compiled = RuleSet.compile(FilterCategory.REMOTE_FILTERS_TYPE, lines, RuleSet.EMPTY);
+                    assertEquals(compiled.size(), rules.size(), "rule count after step " + step);
+                    Reference reference = Reference.parse(lines);
+                    for (int i = 0; i < GENERATED_MESSAGES / 3; i++) {
+                        compare(rules, reference, generateMessage(random, lines), failures);
+                    }
+                }
+                failures.assertNone();
+            }
+        } finally {
+            Files.deleteIfExists(snapshot);
+        }
+    }
+
+    /**
+     * Checks the sample list in the test resources against the chat lines written next to it,
+     * and against messages generated from its rules.
+     */
+    @Test
+    void sampleCorpusMatchesReference() throws IOException {
+        Failures failures = new Failures(0);
+        Random random = new Random(0);
+        List<String> lines = readResource("/corpus/rules.txt");
+        RuleSet rules = RuleSet.compile(FilterCategory.REMOTE_FILTERS_TYPE, lines, RuleSet.EMPTY);
+        Reference reference = Reference.parse(lines);
+        for (String message : readResource("/corpus/messages.txt")) {
+            if (!message.isEmpty() && !message.startsWith("#")) {
+                compare(rules, reference, message, failures);
+            }
+        }
+        for (int i = 0; i < GENERATED_MESSAGES; i++) {
+            compare(rules, reference, generateMessage(random, lines), failures);
+        }
+        failures.assertNone();
+    }
+
+    /**
+     * Matches through MessageFilter from several threads while refreshFilters() loads generated
+     * lists in turn from a stand-in host: through diffs, with a full download every third time,
+     * and compiled from scratch again once the diffs add up. A reader that saw the same rule set
+     * version before and after matching must get the verdict of the list loaded with that version,
+     * or of the next one, whose rules are swapped in just before the version is bumped.
+     */
+    @Test
+    void concurrentRefreshesKeepVerdictsConsistent() throws IOException {
+        long seed = SEEDS[0];
+        Failures failures = new Failures(seed);
+        Random random = new Random(seed);
+
+        // The lists share most rules and differ in a tail, so a diff replaces one tail with another
+        List<String> shared = generateRules(random, GENERATED_RULES, false);
+        List<List<String>> lists = new ArrayList<>();
+        List<List<String>> tails = new ArrayList<>();
+        for (int list = 0; list < STRESS_LISTS; list++) {
+            List<String> tail = new ArrayList<>();
+            for (String line : generateRules(random, GENERATED_RULES / 20, false)) {
+                if (!shared.contains(line)) {
+                    tail.add(line);
+                }
+            }
+            List<String> lines = new ArrayList<>(shared);
+            lines.addAll(tail);
+            lists.add(lines);
+            tails.add(tail);
+        }
+        List<String> messages = new ArrayList<>();
+        for (int i = 0; i < GENERATED_MESSAGES; i++) {
+            messages.add(generateMessage(random, lists.get(i % STRESS_LISTS)));
+        }
+
+        // Reference verdicts of each list for each message
+        List<Reference> references = new ArrayList<>();
+        int[][] expected = new int[STRESS_LISTS][messages.size()];
+        for (int list = 0; list < STRESS_LISTS; list++) {
+            Reference reference = Reference.parse(lists.get(list));
+            references.add(reference);
+            for (int i = 0; i < messages.size(); i++) {
+                expected[list][i] = reference.matchMask(messages.get(i));
+            }
+        }
+
+        MessageFilter filter = MessageFilter.getInstance();
+        try (StandInServer server = new StandInServer()) {
+            server.publish(LIST_PATH, "0", lists.get(0));
+            server.useList(LIST_PATH);
+            filter.refreshFilters().join();
+
+            // The list of every rule set version, known before the refresh that swaps it in
+            Map<Integer, Integer> listOfVersion = new ConcurrentHashMap<>();
+            listOfVersion.put(filter.getRuleSetVersion(), 0);
+            AtomicInteger published = new AtomicInteger();
+            Runnable refresher = () -> {
+                int next = published.incrementAndGet();
+                int from = (next - 1) % STRESS_LISTS;
+                int to = next % STRESS_LISTS;
+                if (next % 3 != 0) {
+                    List<String> diff = new ArrayList<>();
+                    tails.get(from).forEach(line -> diff.add("-" + line));
+                    tails.get(to).forEach(line -> diff.add("+" + line));
+                    server.serveDiff(LIST_PATH, String.valueOf(next - 1), String.valueOf(next), diff);
+                }
+                server.publish(LIST_PATH, String.valueOf(next), lists.get(to));
+
+                int version = filter.getRuleSetVersion();
+                listOfVersion.put(version + 1, to);
+                filter.refreshFilters().join();
+                if (filter.getRuleSetVersion() != version + 1) {
+                    failures.torn("loading list " + to + " moved the rule set version by " + (filter.getRuleSetVersion() - version), null);
+                }
+            };
+
+            stress(seed, failures, refresher, threadRandom -> {
+                int version = filter.getRuleSetVersion();
+                int i = threadRandom.nextInt(messages.size());
+                String message = messages.get(i);
+                MessageKind kind = randomKind(threadRandom);
+                FilterRule rule = filter.getMatchingRule(message, kind);
+                if (filter.getRuleSetVersion() != version) {
+                    return; // Refreshed while matching
+                }
+
+                Integer list = listOfVersion.get(version);
+                Integer next = listOfVersion.get(version + 1);
+                boolean blocked = rule != null;
+                if (!(list != null && blocked == isBlocked(expected[list][i], kind))
+                        && !(next != null && blocked == isBlocked(expected[next][i], kind))) {
+                    failures.divergence("verdict of version " + version + " differs from list " + list + " and " + next + " for " + kind, message);
+                } else if (rule != null && !(list != null && references.get(list).matches(rule.getSource(), kind, message))
+                        && !(next != null && references.get(next).matches(rule.getSource(), kind, message))) {
+                    failures.torn("rule \"" + rule.getSource() + "\" is not in a list of version " + version, message);
+                }
+            });
+
+            // Settled on the last list
+            int last = published.get() % STRESS_LISTS;
+            for (int i = 0; i < messages.size(); i++) {
+                for (MessageKind kind : MessageKind.values()) {
+                    if ((filter.getMatchingRule(messages.get(i), kind) != null) != isBlocked(expected[last][i], kind)) {
+                        failures.divergence("final verdict differs from list " + last + " for " + kind, messages.get(i));
+                    }
+                }
+            }
+            failures.assertNone();
+            assertTrue(published.get() > STRESS_LISTS, "the lists were only refreshed " + published.get() + " times");
+        }
+    }
+
+    /**
+     * Loads a list through refreshFilters() with a shared cache directory, and checks the snapshot
+     * the filter publishes for the other clients on the machine.
+     */
+    @Test
+    void sharedCacheSnapshotMatchesReference() throws IOException {
+        long seed = SEEDS[1];
+        Failures failures = new Failures(seed);
+        Random random = new Random(seed);
+        List<String> lines = generateRules(random, GENERATED_RULES, true);
+        Reference reference = Reference.parse(lines);
+        Path directory = Files.createTempDirectory("shared-rules");
+        try (StandInServer server = new StandInServer()) {
+            server.publish(LIST_PATH, "1", lines);
+            server.useList(LIST_PATH);
+            FilterConfig.getInstance().setSharedCacheDirectory(directory.toString());
+            try {
+                MessageFilter.getInstance().refreshFilters().join();
+                assertEquals(Boolean.TRUE, MessageFilter.getInstance().isSharedCacheLeader(), "the only client doesn't lead");
+                RuleSet snapshot = SharedRuleCache.open(directory.toString(), server.url(LIST_PATH)).loadIfNewer();
+                assertNotNull(snapshot, "no snapshot was published");
+                for (int i = 0; i < GENERATED_MESSAGES; i++) {
+                    compare(snapshot, reference, generateMessage(random, lines), failures);
+                }
+            } finally {
+                FilterConfig.getInstance().setSharedCacheDirectory("");
+                MessageFilter.getInstance().refreshFilters().join(); // Closes the cache
+            }
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+        failures.assertNone();
+    }
+
+    private static boolean isBlocked(int mask, MessageKind kind) {
+        return kind == null ? mask != 0 : (mask & kind.getBit()) != 0;
+    }
+
+    private static List<String> readResource(String name) throws IOException {
+        try (InputStream in = RuleSetReferenceTest.class.getResourceAsStream(name)) {
+            assertNotNull(in, "missing test resource " + name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8).lines().toList();
+        }
+    }
+
+    private static void compare(RuleSet rules, Reference reference, String message, Failures failures) {
+        try {
+            int expected = reference.matchMask(message);
+            check(rules.findMatch(message, null), expected != 0, null, reference, message, failures);
+            for (MessageKind kind : MessageKind.values()) {
+                check(rules.findMatch(message, kind), (expected & kind.getBit()) != 0, kind, reference, message, failures);
+            }
+        } catch (RuntimeException e) {
+            failures.exception(e, message);
+        }
+    }
+
+    private static void check(FilterRule rule, boolean expected, MessageKind kind, Reference reference, String message,
+                              Failures failures) {
+        if ((rule != null) != expected) {
+            failures.divergence("expected " + (expected ? "blocked" : "passed") + " for " + kind + " but "
+                    + (rule != null ? "rule \"" + rule.getSource() + "\" matched" : "no rule matched"), message);
+        } else if (rule != null && !reference.matches(rule.getSource(), kind, message)) {
+            failures.divergence("rule \"" + rule.getSource() + "\" reported for " + kind + " doesn't match", message);
+        }
+    }
+
+    /**
+     * Runs readers on all but one core and a writer on the calling thread until the time is up.
+     */
+    private static void stress(long seed, Failures failures, Runnable writer, StressReader reader) {
+        int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long deadline = System.currentTimeMillis() + STRESS_MILLIS;
+        try {
+            List<Future<?>> readers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                long threadSeed = seed * 31 + t;
+                readers.add(executor.submit(() -> {
+                    Random threadRandom = new Random(threadSeed);
+                    while (System.currentTimeMillis() < deadline) {
+                        try {
+                            reader.read(threadRandom);
+                        } catch (RuntimeException e) {
+                            failures.exception(e, null);
+                        }
+                    }
+                }));
+            }
+            while (System.currentTimeMillis() < deadline) {
+                try {
+                    writer.run();
+                } catch (RuntimeException e) {
+                    failures.exception(e, null);
+                }
+            }
+            for (Future<?> future : readers) {
+                future.get();
+            }
+        } catch (Exception e) {
+            failures.exception(e, null);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static MessageKind randomKind(Random random) {
+        int kind = random.nextInt(MessageKind.values().length + 1);
+        return kind < MessageKind.values().length ? MessageKind.values()[kind] : null;
+    }
+
+    /**
+     * Generates a list with rules of every type and scope, and duplicates with other scopes.
+     */
+    private static List<String> generateRules(Random random, int count, boolean withInvalid) {
+        List<String> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            if (!lines.isEmpty() && random.nextInt(12) == 0) {
+                // Same expression again with another scope
+                String line = lines.get(random.nextInt(lines.size()));
+                lines.add(scope(random) + line.substring(line.startsWith("@") ? line.indexOf(':') + 1 : 0));
+                continue;
+            }
+            String word = word(random);
+            String line = switch (random.nextInt(5)) {
+                case 0 -> scope(random) + word + " " + word(random);
+                case 1 -> typed(random, "word") + word;
+                case 2 -> typed(random, "domain") + (random.nextBoolean() ? "" : word(random) + ".") + word + "." + TLDS[random.nextInt(TLDS.length)];
+                case 3 -> typed(random, "exact") + randomCase(random, word) + (random.nextBoolean() ? "!" : " " + word(random));
+                default -> scope(random) + String.format(Locale.ROOT, REGEX_TEMPLATES[random.nextInt(REGEX_TEMPLATES.length)], word, word);
+            };
+            lines.add(line);
+        }
+        if (withInvalid) {
+            lines.add("broken(regex");
+            lines.add("@word:");
+        }
+        lines.add("# comment " + word(random));
+        return lines;
+    }
+
+    private static String scope(Random random) {
+        return switch (random.nextInt(5)) {
+            case 0 -> "@chat:";
+            case 1 -> "@whisper,system:";
+            case 2 -> "@system:";
+            default -> "";
+        };
+    }
+
+    private static String typed(Random random, String type) {
+        String scope = scope(random);
+        return scope.isEmpty() ? "@" + type + ":" : scope.substring(0, scope.length() - 1) + "," + type + ":";
+    }
+
+    private static String word(Random random) {
+        String word = WORDS[random.nextInt(WORDS.length)];
+        return random.nextInt(4) == 0 ? word + random.nextInt(100) : word;
+    }
+
+    private static String randomCase(Random random, String text) {
+        return switch (random.nextInt(3)) {
+            case 0 -> text.toUpperCase(Locale.ROOT);
+            case 1 -> text.isEmpty() ? text : Character.toUpperCase(text.charAt(0)) + text.substring(1);
+            default -> text;
+        };
+    }
+
+    /**
+     * Generates a message from the vocabulary, fragments of the rules and noise,
+     * with obfuscated domains, odd casing and non-ASCII characters.
+     */
+    private static String generateMessage(Random random, List<String> rules) {
+        StringBuilder message = new StringBuilder();
+        int parts = 1 + random.nextInt(8);
+        for (int part = 0; part < parts; part++) {
+            if (part > 0) {
+                message.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+            }
+            switch (random.nextInt(7)) {
+                case 0 -> {
+                    String rule = rules.get(random.nextInt(rules.size()));
+                    String expression = rule.startsWith("@") ? rule.substring(rule.indexOf(':') + 1) : rule;
+                    if (!expression.isEmpty()) {
+                        // Mostly the whole expression, sometimes only a part of it
+                        int start = random.nextInt(3) == 0 ? random.nextInt(expression.length()) : 0;
+                        int end = random.nextInt(3) == 0 ? start + 1 + random.nextInt(expression.length() - start) : expression.length();
+                        message.append(randomCase(random, expression.substring(start, end)));
+                    }
+                }
+                case 1 -> message.append(word(random)).append(DOTS[random.nextInt(DOTS.length)]).append(TLDS[random.nextInt(TLDS.length)]);
+                case 2 -> message.append(random.nextInt(10000));
+                case 3 -> message.append(randomCase(random, word(random)));
+                case 4 -> message.append(random.nextBoolean() ? "\u00c9t\u00e9" : "stra\u00dfe");
+                default -> message.append(word(random));
+            }
+        }
+        return message.toString();
+    }
+
+    @FunctionalInterface
+    private interface StressReader {
+        void read(Random random);
+    }
+
+    /**
+     * The old matcher: every line as a case-insensitive regex, tried one after the other.
+     */
+    private static final class Reference {
+        private static final Pattern OPTION_PREFIX = Pattern.compile("^@([^:]+):(.*)$", Pattern.DOTALL);
+        private static final Pattern DOMAIN = Pattern.compile("[a-z0-9-]+(\\.[a-z0-9-]+)*");
+        // Dots written as "(.)", "[dot]", " . ", " dot " or full stops between two labels
+        private static final Pattern OBFUSCATED_DOT = Pattern.compile(
+                "(?<=[A-Za-z0-9])(?: *(?:\\(\\.\\)|\\[\\.\\]|\\{\\.\\}|\\(dot\\)|\\[dot\\]|\\{dot\\}|[\u3002\uFF0E])| +(?:\\.|dot(?= ))) *(?=[A-Za-z0-9])",
+                Pattern.CASE_INSENSITIVE);
+        private static final Map<String, Integer> SCOPES = Map.of(
+                "chat", MessageKind.CHAT.getBit(), "whisper", MessageKind.WHISPER.getBit(), "system", MessageKind.SYSTEM.getBit());
+        private static final Set<String> TYPES = Set.of("exact", "word", "domain", "regex");
+
+        private final List<Line> lines = new ArrayList<>();
+        private final Map<String, Line> bySource = new HashMap<>();
+
+        private record Line(int scopeMask, Pattern pattern, boolean domain) {
+        }
+
+        static Reference parse(List<String> rawLines) {
+            Reference reference = new Reference();
+            for (String raw : rawLines) {
+                if (raw.isEmpty() || raw.startsWith("#")) {
+                    continue;
+                }
+                Line line = parseLine(raw);
+                if (line != null) {
+                    reference.lines.add(line);
+                    reference.bySource.putIfAbsent(raw, line);
+                }
+            }
+            return reference;
+        }
+
+        /**
+         * Parses a line, or returns null if the old matcher would never have matched with it.
+         */
+        private static Line parseLine(String raw) {
+            int scopeMask = MessageKind.ALL;
+            String type = null;
+            String expression = raw;
+
+            Matcher prefix = OPTION_PREFIX.matcher(raw);
+            if (prefix.matches()) {
+                int mask = 0;
+                String declared = null;
+                boolean valid = true;
+                for (String option : prefix.group(1).split(",")) {
+                    String keyword = option.trim().toLowerCase(Locale.ROOT);
+                    if (SCOPES.containsKey(keyword)) {
+                        mask |= SCOPES.get(keyword);
+                    } else if (TYPES.contains(keyword) && declared == null) {
+                        declared = keyword;
+                    } else {
+                        valid = false;
+                        break;
+                    }
+                }
+                if (valid) {
+                    scopeMask = mask != 0 ? mask : MessageKind.ALL;
+                    type = declared;
+                    expression = prefix.group(2);
+                }
+            }
+
+            String regex;
+            boolean domain = false;
+            if (type == null || type.equals("regex")) {
+                if (type == null && expression.isEmpty()) {
+                    return null; // A prefix with nothing to match
+                }
+                regex = expression;
+            } else if (type.equals("exact")) {
+                regex = Pattern.quote(expression);
+            } else if (type.equals("word")) {
+                regex = "(?<![A-Za-z0-9_])" + Pattern.quote(expression) + "(?![A-Za-z0-9_])";
+            } else {
+                expression = expression.trim().toLowerCase(Locale.ROOT);
+                if (expression.startsWith("*.")) {
+                    expression = expression.substring(2);
+                }
+                domain = DOMAIN.matcher(expression).matches();
+                // The domain or a subdomain, but not a longer label or a parent of another domain
+                regex = domain ? "(?<![A-Za-z0-9-])" + Pattern.quote(expression) + "(?![A-Za-z0-9-]|\\.[A-Za-z0-9-])"
+                        : Pattern.quote(expression);
+            }
+            if (type != null && !type.equals("regex") && expression.isEmpty()) {
+                return null;
+            }
+
+            try {
+                return new Line(scopeMask, Pattern.compile(regex, Pattern.CASE_INSENSITIVE), domain);
+            } catch (PatternSyntaxException e) {
+                return null;
+            }
+        }
+
+        /**
+         * Tries every line on the message.
+         * @return The union of the scopes of the matching lines
+         */
+        int matchMask(String message) {
+            int mask = 0;
+            for (int i = 0; i < lines.size() && mask != MessageKind.ALL; i++) {
+                Line line = lines.get(i);
+                if ((mask | line.scopeMask()) != mask && matches(line, message)) {
+                    mask |= line.scopeMask();
+                }
+            }
+            return mask;
+        }
+
+        boolean matches(String source, MessageKind kind, String message) {
+            Line line = bySource.get(source);
+            return line != null && (kind == null || (line.scopeMask() & kind.getBit()) != 0) && matches(line, message);
+        }
+
+        private static boolean matches(Line line, String message) {
+            if (line.pattern().matcher(message).find()) {
+                return true;
+            }
+            if (!line.domain()) {
+                return false;
+            }
+            String plain = OBFUSCATED_DOT.matcher(message).replaceAll(".");
+            return !plain.equals(message) && line.pattern().matcher(plain).find();
+        }
+    }
+
+    /**
+     * Failures of one run, safe to record from several threads.
+     */
+    private static final class Failures {
+        private final long seed;
+        private final AtomicInteger divergences = new AtomicInteger();
+        private final AtomicInteger exceptions = new AtomicInteger();
+        private final AtomicInteger tornStates = new AtomicInteger();
+        private final List<String> examples = new ArrayList<>();
+
+        Failures(long seed) {
+            this.seed = seed;
+        }
+
+        void divergence(String description, String message) {
+            divergences.incrementAndGet();
+            example(description, message);
+        }
+
+        void torn(String description, String message) {
+            tornStates.incrementAndGet();
+            example(description, message);
+        }
+
+        void exception(Exception e, String message) {
+            exceptions.incrementAndGet();
+            example(e.toString(), message);
+        }
+
+        private synchronized void example(String description, String message) {
+            if (examples.size() < MAX_EXAMPLES) {
+                examples.add(message != null ? description + ": \"" + message + "\"" : description);
+            }
+        }
+
+        synchronized void assertNone() {
+            assertTrue(divergences.get() == 0 && exceptions.get() == 0 && tornStates.get() == 0,
+                    "seed " + seed + ": " + divergences.get() + " divergences, " + exceptions.get() + " exceptions, "
+                            + tornStates.get() + " torn states, first: " + String.join("; ", examples));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package info.n00bs.adblock_2b2t.client.filter;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import info.n00bs.adblock_2b2t.client.config.FilterConfig;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stands in for the host of a remote list: serves lists, version files and diffs from memory
+ * on a loopback port and records the paths that were requested.
+ * <p>
+ * {@link #useList} points the {@link FilterConfig} at a list on this server. The configuration is
+ * the real singleton, saved under the working directory the build gives the tests.
+ */
+final class StandInServer implements AutoCloseable {
+    private final HttpServer server;
+    private final Map<String, byte[]> files = new ConcurrentHashMap<>();
+    private final List<String> requests = new ArrayList<>(); // Guarded by itself
+
+    StandInServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * Initializes the filter with every list turned off and waits for its first refresh,
+     * so no refresh started by the initialization runs into a test.
+     */
+    static void initializeFilter() {
+        FilterConfig config = FilterConfig.getInstance();
+        config.setEnabled(true);
+        config.setAutoRefreshEnabled(false);
+        config.setClassifierEnabled(false);
+        config.setReputationEnabled(false);
+        config.setSharedCacheDirectory("");
+        config.setUseCustomFilters(false);
+        config.setUseRemoteFilters(false);
+        MessageFilter.getInstance().initialize().join();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String path = exchange.getRequestURI().getPath();
+            synchronized (requests) {
+                requests.add(path);
+            }
+            byte[] body = files.get(path);
+            if (body == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /**
+     * Gets the URL of a file on this server.
+     * @param path The path, starting with a slash
+     * @return The URL
+     */
+    String url(String path) {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + path;
+    }
+
+    /**
+     * Serves lines as a file, one per line.
+     * @param path The path, starting with a slash
+     * @param lines The lines
+     */
+    void serve(String path, List<String> lines) {
+        StringBuilder content = new StringBuilder();
+        for (String line : lines) {
+            content.append(line).append('\n');
+        }
+        files.put(path, content.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Publishes a version of a list: the list itself and the version file describing it.
+     * @param listPath The path of the list, e.g. {@code /filter.txt}
+     * @param version The version token
+     * @param lines The list lines
+     */
+    void publish(String listPath, String version, List<String> lines) {
+        serve(listPath, lines);
+        String versionPath = DeltaUpdate.versionUrl(listPath);
+        serve(versionPath, List.of(DeltaUpdate.formatVersion(new DeltaUpdate.Version(version, DeltaUpdate.hash(lines))).trim()));
+    }
+
+    /**
+     * Serves the diff between two versions of a list.
+     * @param listPath The path of the list
+     * @param from The version the diff applies to
+     * @param to The version it produces
+     * @param diff The diff lines
+     */
+    void serveDiff(String listPath, String from, String to, List<String> diff) {
+        serve(DeltaUpdate.diffUrl(listPath, from, to), diff);
+    }
+
+    /**
+     * Gets the paths requested since the last call, in order.
+     * @return The requested paths
+     */
+    List<String> takeRequests() {
+        synchronized (requests) {
+            List<String> taken = new ArrayList<>(requests);
+            requests.clear();
+            return taken;
+        }
+    }
+
+    /**
+     * Points the filter at a list on this server, with delta updates on and only the remote list used.
+     * @param listPath The path of the list
+     */
+    void useList(String listPath) {
+        FilterConfig config = FilterConfig.getInstance();
+        config.setUseCustomFilters(false);
+        config.setDeltaUpdatesEnabled(true);
+        config.setRemoteUrl(url(listPath));
+        config.setUseRemoteFilters(true);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}